@@ -2,6 +2,8 @@ package org.xbib.elasticsearch.action.langdetect;
 
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.xcontent.StatusToXContentObject;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -41,6 +43,29 @@ public class LangdetectResponse extends ActionResponse implements StatusToXConte
         return this;
     }
 
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        profile = in.readOptionalString();
+        int size = in.readVInt();
+        languages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Language language = new Language(null, 0d);
+            language.readFrom(in);
+            languages.add(language);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeOptionalString(profile);
+        out.writeVInt(languages.size());
+        for (Language language : languages) {
+            language.writeTo(out);
+        }
+    }
+
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
         builder.startObject();
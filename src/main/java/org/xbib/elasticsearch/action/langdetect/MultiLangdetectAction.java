@@ -0,0 +1,29 @@
+package org.xbib.elasticsearch.action.langdetect;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ * Language detection for many texts in one request.
+ */
+public class MultiLangdetectAction
+        extends Action<MultiLangdetectRequest, MultiLangdetectResponse, MultiLangdetectRequestBuilder> {
+
+    public static final String NAME = "langdetect/multi";
+
+    public static final MultiLangdetectAction INSTANCE = new MultiLangdetectAction();
+
+    private MultiLangdetectAction() {
+        super(NAME);
+    }
+
+    @Override
+    public MultiLangdetectRequestBuilder newRequestBuilder(ElasticsearchClient client) {
+        return new MultiLangdetectRequestBuilder(client);
+    }
+
+    @Override
+    public MultiLangdetectResponse newResponse() {
+        return new MultiLangdetectResponse();
+    }
+}
@@ -0,0 +1,65 @@
+package org.xbib.elasticsearch.action.langdetect;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * A list of language detection requests.
+ */
+public class MultiLangdetectRequest extends ActionRequest {
+
+    private List<LangdetectRequest> requests = new ArrayList<>();
+
+    public MultiLangdetectRequest add(LangdetectRequest request) {
+        requests.add(request);
+        return this;
+    }
+
+    public List<LangdetectRequest> requests() {
+        return requests;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = null;
+        if (requests.isEmpty()) {
+            validationException = addValidationError("no texts added", null);
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i).getText() == null) {
+                validationException = addValidationError("text is missing for item [" + i + "]",
+                        validationException);
+            }
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        requests = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            LangdetectRequest request = new LangdetectRequest();
+            request.readFrom(in);
+            requests.add(request);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(requests.size());
+        for (LangdetectRequest request : requests) {
+            request.writeTo(out);
+        }
+    }
+}
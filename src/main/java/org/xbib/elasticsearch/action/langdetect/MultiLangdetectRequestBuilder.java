@@ -0,0 +1,30 @@
+package org.xbib.elasticsearch.action.langdetect;
+
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.ElasticsearchClient;
+
+/**
+ *
+ */
+public class MultiLangdetectRequestBuilder
+        extends ActionRequestBuilder<MultiLangdetectRequest, MultiLangdetectResponse, MultiLangdetectRequestBuilder> {
+
+    public MultiLangdetectRequestBuilder(ElasticsearchClient client) {
+        super(client, MultiLangdetectAction.INSTANCE, new MultiLangdetectRequest());
+    }
+
+    public MultiLangdetectRequestBuilder add(String text) {
+        request.add(new LangdetectRequest().setText(text));
+        return this;
+    }
+
+    public MultiLangdetectRequestBuilder add(String profile, String text) {
+        request.add(new LangdetectRequest().setProfile(profile).setText(text));
+        return this;
+    }
+
+    public MultiLangdetectRequestBuilder add(LangdetectRequest langdetectRequest) {
+        request.add(langdetectRequest);
+        return this;
+    }
+}
@@ -0,0 +1,129 @@
+package org.xbib.elasticsearch.action.langdetect;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The responses of a multi language detection request, in the order of the requests.
+ */
+public class MultiLangdetectResponse extends ActionResponse implements Iterable<MultiLangdetectResponse.Item>,
+        ToXContentObject {
+
+    private Item[] items;
+
+    MultiLangdetectResponse() {
+    }
+
+    public MultiLangdetectResponse(Item[] items) {
+        this.items = items;
+    }
+
+    public Item[] getResponses() {
+        return items;
+    }
+
+    @Override
+    public Iterator<Item> iterator() {
+        return Arrays.stream(items).iterator();
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        items = new Item[in.readVInt()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new Item();
+            items[i].readFrom(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(items.length);
+        for (Item item : items) {
+            item.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject();
+        builder.startArray("responses");
+        for (Item item : items) {
+            if (item.isFailure()) {
+                builder.startObject();
+                ElasticsearchException.generateFailureXContent(builder, params, item.getFailure(), true);
+                builder.field("status", ExceptionsHelper.status(item.getFailure()).getStatus());
+                builder.endObject();
+            } else {
+                item.getResponse().toXContent(builder, params);
+            }
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * A single response, or the failure of a single request.
+     */
+    public static class Item implements Streamable {
+
+        private LangdetectResponse response;
+
+        private Exception failure;
+
+        Item() {
+        }
+
+        public Item(LangdetectResponse response, Exception failure) {
+            this.response = response;
+            this.failure = failure;
+        }
+
+        public boolean isFailure() {
+            return failure != null;
+        }
+
+        public LangdetectResponse getResponse() {
+            return response;
+        }
+
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            if (in.readBoolean()) {
+                response = new LangdetectResponse();
+                response.readFrom(in);
+            } else {
+                failure = in.readException();
+            }
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            if (response != null) {
+                out.writeBoolean(true);
+                response.writeTo(out);
+            } else {
+                out.writeBoolean(false);
+                out.writeException(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.xbib.elasticsearch.action.langdetect;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches a sequence of asynchronous tasks with a bounded number of tasks in flight.
+ *
+ * Each completed task calls {@link #dispatch()} to start the next one. Tasks may complete on the calling
+ * thread, e.g. when an executor rejects them, so {@link #dispatch()} never starts a task recursively: a call
+ * while another call is dispatching is only counted, and the dispatching thread starts one more task for
+ * each counted call. The stack depth stays constant no matter how many tasks complete inline.
+ */
+public abstract class ThrottledDispatcher {
+
+    private final AtomicInteger requested = new AtomicInteger();
+
+    /**
+     * Start the first tasks.
+     *
+     * @param concurrency the maximum number of tasks in flight
+     */
+    public void start(int concurrency) {
+        for (int i = 0; i < concurrency; i++) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Start the next task, or do nothing if the next task was already requested.
+     */
+    protected final void dispatch() {
+        if (requested.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            dispatchNext();
+        } while (requested.decrementAndGet() != 0);
+    }
+
+    /**
+     * Start the next task, if there is one. The task must call {@link #dispatch()} when it is done.
+     */
+    protected abstract void dispatchNext();
+}
@@ -5,50 +5,96 @@ import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.TransportAction;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
 import org.xbib.elasticsearch.common.langdetect.LangdetectService;
 import org.xbib.elasticsearch.common.langdetect.Language;
-import org.xbib.elasticsearch.common.langdetect.LanguageDetectionException;
+import org.xbib.elasticsearch.plugin.langdetect.LangdetectPlugin;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
  */
 public class TransportLangdetectAction extends TransportAction<LangdetectRequest, LangdetectResponse> {
 
-    private static final Map<String, LangdetectService> services = new HashMap<>();
+    /**
+     * The number of detection results cached for each profile on this node, 0 disables the cache.
+     */
+    public static final Setting<Integer> CACHE_SIZE =
+            Setting.intSetting("langdetect.cache_size", 0, 0, Setting.Property.NodeScope);
+
+    /**
+     * The maximum length of the texts whose detection results are cached.
+     */
+    public static final Setting<Integer> CACHE_MAX_LENGTH =
+            Setting.intSetting("langdetect.cache_max_length", 1000, 0, Setting.Property.NodeScope);
+
+    private final LangdetectModelRegistry modelRegistry;
+
+    private final Map<String, LangdetectService> services = new ConcurrentHashMap<>();
 
     @Inject
     public TransportLangdetectAction(Settings settings, ThreadPool threadPool,
                                      ActionFilters actionFilters,
                                      IndexNameExpressionResolver indexNameExpressionResolver,
-                                     TransportService transportService) {
+                                     TransportService transportService,
+                                     LangdetectModelRegistry modelRegistry) {
         super(settings, LangdetectAction.NAME, threadPool, actionFilters, indexNameExpressionResolver, transportService.getTaskManager());
-        services.put("", new LangdetectService(settings));
+        this.modelRegistry = modelRegistry;
     }
 
     @Override
     protected void doExecute(LangdetectRequest request, ActionListener<LangdetectResponse> listener) {
-        String profile = request.getProfile();
-        if (profile == null) {
-            profile = "";
-        }
-        if (!services.containsKey(profile)) {
-            services.put(profile, new LangdetectService(settings, profile));
-        }
-        // detectAll() is not thread-safe
-        synchronized (services) {
-            try {
-                List<Language> langs = services.get(profile).detectAll(request.getText());
-                listener.onResponse(new LangdetectResponse().setLanguages(langs).setProfile(request.getProfile()));
-            } catch (LanguageDetectionException e) {
+        String profile = request.getProfile() != null ? request.getProfile() : "";
+        // detection is CPU-bound, do not run it on the calling thread, which may be a network thread
+        threadPool.executor(LangdetectPlugin.THREAD_POOL_NAME).execute(new AbstractRunnable() {
+            @Override
+            public void onFailure(Exception e) {
                 listener.onFailure(e);
             }
+
+            @Override
+            protected void doRun() throws Exception {
+                List<Language> langs = getService(profile).detectAll(request.getText());
+                listener.onResponse(new LangdetectResponse().setLanguages(langs).setProfile(request.getProfile()));
+            }
+        });
+    }
+
+    private LangdetectService getService(String profile) throws IOException {
+        try {
+            // the service of a profile is created once, so the model is acquired once per profile
+            return services.computeIfAbsent(profile, this::createService);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private LangdetectService createService(String profile) {
+        String name = settings.get("profile", profile.isEmpty() ? null : profile);
+        Settings serviceSettings = Settings.builder().put(settings)
+                .put("cache_size", CACHE_SIZE.get(settings))
+                .put("cache_max_length", CACHE_MAX_LENGTH.get(settings))
+                .build();
+        LangdetectService service;
+        try {
+            service = new LangdetectService(serviceSettings,
+                    modelRegistry.acquire(LangdetectAction.NAME, name, settings.getAsArray("languages"),
+                            settings.get("model", LangdetectModel.HEAP)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        modelRegistry.registerCache(LangdetectAction.NAME, profile, service);
+        return service;
     }
 }
@@ -0,0 +1,94 @@
+package org.xbib.elasticsearch.action.langdetect;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.TransportAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AtomicArray;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.plugin.langdetect.LangdetectPlugin;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the requests of a multi language detection request on the langdetect thread pool. At most as many
+ * requests as the pool has threads are in flight at the same time, so a large batch does not fill the queue.
+ * The response is sent when all requests are done, because a transport response can not be streamed.
+ */
+public class TransportMultiLangdetectAction extends TransportAction<MultiLangdetectRequest, MultiLangdetectResponse> {
+
+    private final TransportLangdetectAction langdetectAction;
+
+    @Inject
+    public TransportMultiLangdetectAction(Settings settings, ThreadPool threadPool,
+                                          ActionFilters actionFilters,
+                                          IndexNameExpressionResolver indexNameExpressionResolver,
+                                          TransportService transportService,
+                                          TransportLangdetectAction langdetectAction) {
+        super(settings, MultiLangdetectAction.NAME, threadPool, actionFilters, indexNameExpressionResolver,
+                transportService.getTaskManager());
+        this.langdetectAction = langdetectAction;
+    }
+
+    @Override
+    protected void doExecute(MultiLangdetectRequest request, ActionListener<MultiLangdetectResponse> listener) {
+        List<LangdetectRequest> requests = request.requests();
+        int concurrency = Math.min(requests.size(),
+                Math.max(1, threadPool.info(LangdetectPlugin.THREAD_POOL_NAME).getMax()));
+        new MultiDetection(requests, listener).start(concurrency);
+    }
+
+    private class MultiDetection extends ThrottledDispatcher {
+
+        private final List<LangdetectRequest> requests;
+
+        private final ActionListener<MultiLangdetectResponse> listener;
+
+        private final AtomicArray<MultiLangdetectResponse.Item> responses;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        private final AtomicInteger counter;
+
+        MultiDetection(List<LangdetectRequest> requests, ActionListener<MultiLangdetectResponse> listener) {
+            this.requests = requests;
+            this.listener = listener;
+            this.responses = new AtomicArray<>(requests.size());
+            this.counter = new AtomicInteger(requests.size());
+        }
+
+        @Override
+        protected void dispatchNext() {
+            int slot = next.getAndIncrement();
+            if (slot >= requests.size()) {
+                return;
+            }
+            langdetectAction.execute(requests.get(slot), new ActionListener<LangdetectResponse>() {
+                @Override
+                public void onResponse(LangdetectResponse response) {
+                    responses.set(slot, new MultiLangdetectResponse.Item(response, null));
+                    finish();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    responses.set(slot, new MultiLangdetectResponse.Item(null, e));
+                    finish();
+                }
+
+                private void finish() {
+                    if (counter.decrementAndGet() == 0) {
+                        listener.onResponse(new MultiLangdetectResponse(
+                                responses.toArray(new MultiLangdetectResponse.Item[responses.length()])));
+                    } else {
+                        dispatch();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A language model with all n-gram probabilities on the heap.
+ *
+ * The n-grams are kept in a {@link NGramTable}, the probabilities in a single row-major matrix with one row
+ * per n-gram and one column per language.
+ */
+class HeapLangdetectModel extends LangdetectModel {
+
+    private final NGramTable table;
+
+    private double[] matrix;
+
+    private int langsize;
+
+    private boolean frozen;
+
+    /**
+     * Create an empty model. Profiles can be added by {@link #addProfile(LangProfile, int, int)}.
+     */
+    HeapLangdetectModel(String profile) {
+        this(profile, new ArrayList<>(), 1024);
+    }
+
+    /**
+     * Create an empty model for a known list of languages. Rows can be added by {@link #addRow(String)}.
+     */
+    HeapLangdetectModel(String profile, List<String> langlist, int expectedRows) {
+        super(profile, langlist);
+        this.table = new NGramTable(expectedRows);
+        this.langsize = langlist.size();
+        this.matrix = new double[expectedRows * langsize];
+    }
+
+    /**
+     * Add a row for an n-gram.
+     *
+     * @param word the n-gram
+     * @return the row of the n-gram, or -1 if the word is not a valid n-gram
+     */
+    int addRow(String word) {
+        if (word.length() < 1 || word.length() > NGram.N_GRAM) {
+            return -1;
+        }
+        int row = table.put(NGram.pack(word));
+        if ((row + 1) * langsize > matrix.length) {
+            matrix = Arrays.copyOf(matrix, Math.max(matrix.length * 2, (row + 1) * langsize));
+        }
+        return row;
+    }
+
+    void set(int row, int index, double prob) {
+        matrix[row * langsize + index] = prob;
+    }
+
+    void freeze() {
+        frozen = true;
+    }
+
+    @Override
+    void addProfile(LangProfile profile, int index, int langsize) throws IOException {
+        if (frozen) {
+            throw new IllegalStateException("model is immutable");
+        }
+        String lang = profile.getName();
+        if (langlist.contains(lang)) {
+            throw new IOException("duplicate of the same language profile: " + lang);
+        }
+        if (table.size() == 0) {
+            this.langsize = langsize;
+        } else if (this.langsize != langsize) {
+            throw new IllegalArgumentException("language size " + langsize + " differs from " + this.langsize);
+        }
+        langlist.add(lang);
+        for (String s : profile.getFreq().keySet()) {
+            int row = addRow(s);
+            if (row >= 0) {
+                double prob = profile.getFreq().get(s).doubleValue() / profile.getNWords().get(s.length() - 1);
+                set(row, index, prob);
+            }
+        }
+    }
+
+    /**
+     * The n-gram table, e.g. for writing the model to a file.
+     */
+    NGramTable table() {
+        return table;
+    }
+
+    /**
+     * The probability matrix, e.g. for writing the model to a file. The matrix may be longer than the
+     * number of rows times the number of languages.
+     */
+    double[] matrix() {
+        return matrix;
+    }
+
+    @Override
+    public int row(long gram) {
+        return table.get(gram);
+    }
+
+    @Override
+    public double get(int row, int index) {
+        return matrix[row * langsize + index];
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight) {
+        int base = row * langsize;
+        for (int i = 0; i < prob.length; ++i) {
+            prob[i] *= weight + matrix[base + i];
+        }
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight, int[] langs) {
+        int base = row * langsize;
+        for (int i = 0; i < langs.length; ++i) {
+            prob[i] *= weight + matrix[base + langs[i]];
+        }
+    }
+}
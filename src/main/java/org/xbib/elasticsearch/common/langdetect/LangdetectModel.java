@@ -0,0 +1,368 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.io.stream.InputStreamStreamInput;
+import org.elasticsearch.common.io.stream.StreamInput;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The n-gram probabilities of a set of language profiles.
+ *
+ * A model is immutable once it has been loaded, so a single instance can be shared between all
+ * detection services of a node, see {@link LangdetectModelRegistry}. Models are kept either on the heap,
+ * on the heap in single precision, see {@link FloatLangdetectModel}, on the heap without zeros, see
+ * {@link SparseLangdetectModel}, quantized on the heap, see {@link QuantizedLangdetectModel}, or in a
+ * memory-mapped file, see {@link MappedLangdetectModel}.
+ */
+public abstract class LangdetectModel {
+
+    public static final String ALL_LANGUAGES =
+        "af,ar,bg,bn,ca,cs,da,de,el,en,es,et,fa,fi,fr,gu,he,hi,hr,hu,id,it,ja,kn,ko,lt,lv,mk,ml,mr,ne,nl,no,pa,pl,pt," +
+            "ro,ru,si,sk,sl,so,sq,sv,sw,ta,te,th,tl,tr,uk,ur,vi,zh-cn,zh-tw";
+
+    /**
+     * The model type for n-gram probabilities on the heap.
+     */
+    public static final String HEAP = "heap";
+
+    /**
+     * The model type for n-gram probabilities in a memory-mapped file.
+     */
+    public static final String MAPPED = "mapped";
+
+    /**
+     * The model type for n-gram probabilities on the heap in single precision.
+     */
+    public static final String FLOAT = "float";
+
+    /**
+     * The model type for the non-zero n-gram probabilities on the heap.
+     */
+    public static final String SPARSE = "sparse";
+
+    /**
+     * The model type for n-gram probabilities on the heap, quantized to one byte each.
+     */
+    public static final String QUANTIZED = "quantized";
+
+    private static final Logger logger = LogManager.getLogger(LangdetectModel.class.getName());
+
+    protected final String profile;
+
+    protected final List<String> langlist;
+
+    protected LangdetectModel(String profile, List<String> langlist) {
+        this.profile = profile;
+        this.langlist = langlist;
+    }
+
+    /**
+     * Load the profiles of the given languages. The compiled profiles of {@link ProfileCompiler} are
+     * preferred, the JSON profiles are read only if no compiled profiles exist.
+     *
+     * @param profile the profile name, or null for the default profile
+     * @param langKeys the language codes, or an empty array for all languages found in the profile
+     * @return the model
+     * @throws IOException if a requested language profile does not exist
+     */
+    public static LangdetectModel load(String profile, String[] langKeys) throws IOException {
+        return loadHeap(profile, langKeys);
+    }
+
+    /**
+     * Load the profiles of the given languages into a model of the given type.
+     *
+     * @param profile the profile name, or null for the default profile
+     * @param langKeys the language codes, or an empty array for all languages found in the profile
+     * @param type the model type, {@link #HEAP}, {@link #MAPPED}, {@link #FLOAT}, {@link #SPARSE} or
+     *             {@link #QUANTIZED}
+     * @param directory the directory for model files of type {@link #MAPPED}
+     * @return the model
+     * @throws IOException if a requested language profile does not exist
+     */
+    public static LangdetectModel load(String profile, String[] langKeys, String type, Path directory)
+            throws IOException {
+        switch (type) {
+            case HEAP:
+                return loadHeap(profile, langKeys);
+            case MAPPED:
+                return MappedLangdetectModel.load(profile, langKeys, directory);
+            case FLOAT:
+                return new FloatLangdetectModel(loadHeap(profile, langKeys));
+            case SPARSE:
+                return new SparseLangdetectModel(loadHeap(profile, langKeys));
+            case QUANTIZED:
+                return new QuantizedLangdetectModel(loadHeap(profile, langKeys));
+            default:
+                throw new IllegalArgumentException("unknown model type: " + type);
+        }
+    }
+
+    static HeapLangdetectModel loadHeap(String profile, String[] langKeys) throws IOException {
+        String path = "/langdetect/" + (profile == null ? "" : profile + "/");
+        InputStream compiled = LangdetectModel.class.getResourceAsStream(path + ProfileCompiler.COMPILED_PROFILES);
+        if (compiled != null) {
+            try {
+                return readHeap(compiled, profile, langKeys);
+            } finally {
+                compiled.close();
+            }
+        }
+        HeapLangdetectModel model = new HeapLangdetectModel(profile);
+        boolean ignoreNullResources = false;
+        if (langKeys.length == 0) {
+            langKeys = ALL_LANGUAGES.split(",");
+            ignoreNullResources = true;
+        }
+        List<LangProfile> langProfiles = new ArrayList<>(langKeys.length);
+        for (String langKey : langKeys) {
+            if (langKey == null || langKey.isEmpty()) {
+                continue;
+            }
+            String langPath = path + langKey;
+            InputStream in = LangdetectModel.class.getResourceAsStream(langPath);
+            if (in == null) {
+                if (ignoreNullResources) {
+                    continue;
+                }
+                throw new IOException("profile '" + langKey + "' not found, path = " + langPath);
+            }
+            langProfiles.add(new LangProfile(in));
+        }
+        for (int i = 0; i < langProfiles.size(); i++) {
+            model.addProfile(langProfiles.get(i), i, langProfiles.size());
+        }
+        model.freeze();
+        logger.debug("language detection model loaded for {}", model.langlist);
+        return model;
+    }
+
+    /**
+     * Read the profiles of the given languages from a stream of compiled profiles.
+     *
+     * @param in the input stream, as written by {@link ProfileCompiler#write}
+     * @param profile the profile name, or null for the default profile
+     * @param langKeys the language codes, or an empty array for all languages found in the stream
+     * @return the model
+     * @throws IOException if a requested language profile does not exist
+     */
+    public static LangdetectModel read(InputStream in, String profile, String[] langKeys) throws IOException {
+        return readHeap(in, profile, langKeys);
+    }
+
+    private static HeapLangdetectModel readHeap(InputStream in, String profile, String[] langKeys) throws IOException {
+        StreamInput input = new InputStreamStreamInput(new BufferedInputStream(in, 65536));
+        ProfileCompiler.readHeader(input);
+        int size = input.readVInt();
+        List<String> names = new ArrayList<>(size);
+        long[][] nWords = new long[size][NGram.N_GRAM];
+        for (int i = 0; i < size; i++) {
+            names.add(input.readString());
+            for (int n = 0; n < NGram.N_GRAM; n++) {
+                nWords[i][n] = input.readVLong();
+            }
+        }
+        List<String> langlist = new ArrayList<>();
+        boolean ignoreNullResources = false;
+        if (langKeys.length == 0) {
+            langKeys = ALL_LANGUAGES.split(",");
+            ignoreNullResources = true;
+        }
+        int[] columns = new int[size];
+        Arrays.fill(columns, -1);
+        for (String langKey : langKeys) {
+            if (langKey == null || langKey.isEmpty()) {
+                continue;
+            }
+            int i = names.indexOf(langKey);
+            if (i < 0) {
+                if (ignoreNullResources) {
+                    continue;
+                }
+                throw new IOException("profile '" + langKey + "' not found in compiled profiles");
+            }
+            if (langlist.contains(langKey)) {
+                throw new IOException("duplicate of the same language profile: " + langKey);
+            }
+            columns[i] = langlist.size();
+            langlist.add(langKey);
+        }
+        int grams = input.readVInt();
+        HeapLangdetectModel model = new HeapLangdetectModel(profile, langlist, grams);
+        for (int k = 0; k < grams; k++) {
+            String s = input.readString();
+            int length = s.length();
+            int row = -1;
+            int count = input.readVInt();
+            for (int j = 0; j < count; j++) {
+                int i = input.readVInt();
+                long freq = input.readVLong();
+                if (columns[i] >= 0) {
+                    if (row < 0) {
+                        row = model.addRow(s);
+                    }
+                    if (row >= 0) {
+                        model.set(row, columns[i], (double) freq / nWords[i][length - 1]);
+                    }
+                }
+            }
+        }
+        model.freeze();
+        logger.debug("language detection model read for {}", model.langlist);
+        return model;
+    }
+
+    void addProfile(LangProfile profile, int index, int langsize) throws IOException {
+        throw new IllegalStateException("model is immutable");
+    }
+
+    /**
+     * Free the resources of this model outside of the heap. Called by the registry when the last owner
+     * has released the model.
+     */
+    void dispose() {
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public List<String> getLanguages() {
+        return Collections.unmodifiableList(langlist);
+    }
+
+    public int size() {
+        return langlist.size();
+    }
+
+    /**
+     * Look up the row of a packed n-gram, see {@link NGram#pack(CharSequence)}.
+     *
+     * @param gram the packed n-gram
+     * @return the row, or -1 if the n-gram is unknown
+     */
+    public abstract int row(long gram);
+
+    /**
+     * Look up the row of an n-gram.
+     *
+     * @param word the n-gram
+     * @return the row, or -1 if the n-gram is unknown
+     */
+    public int row(String word) {
+        return word.length() >= 1 && word.length() <= NGram.N_GRAM ? row(NGram.pack(word)) : -1;
+    }
+
+    /**
+     * Check if the model knows an n-gram.
+     *
+     * @param word the n-gram
+     * @return true if the n-gram occurs in at least one language
+     */
+    public boolean contains(String word) {
+        return row(word) >= 0;
+    }
+
+    /**
+     * Return the probability of an n-gram in a language.
+     *
+     * @param word the n-gram
+     * @param index the language index
+     * @return the probability, 0 if the n-gram is unknown
+     */
+    public double get(String word, int index) {
+        int row = row(word);
+        return row >= 0 ? get(row, index) : 0d;
+    }
+
+    /**
+     * Return the probability of an n-gram row in a language.
+     *
+     * @param row the row, see {@link #row(long)}
+     * @param index the language index
+     * @return the probability
+     */
+    public abstract double get(int row, int index);
+
+    /**
+     * Multiply the language probabilities by the smoothed probabilities of an n-gram row.
+     *
+     * @param prob the language probabilities
+     * @param row the row, see {@link #row(long)}
+     * @param weight the smoothing weight
+     */
+    public abstract void update(double[] prob, int row, double weight);
+
+    /**
+     * Add the logarithms of the smoothed probabilities of an n-gram row to language scores.
+     *
+     * @param score the language scores
+     * @param row the row, see {@link #row(long)}
+     * @param weight the smoothing weight
+     * @param count the number of occurrences of the n-gram
+     */
+    public void addLog(double[] score, int row, double weight, int count) {
+        for (int i = 0; i < score.length; ++i) {
+            score[i] += count * Math.log(weight + get(row, i));
+        }
+    }
+
+    /**
+     * Add the logarithms of the smoothed probabilities of an n-gram row to the language scores of many
+     * texts. Each logarithm is computed once and added to all texts, with the same result as
+     * {@link #addLog(double[], int, double, int)} for each text.
+     *
+     * @param scores the language scores by text
+     * @param docs the texts in which the n-gram occurs
+     * @param counts the number of occurrences of the n-gram in each of these texts
+     * @param n the number of these texts
+     * @param row the row, see {@link #row(long)}
+     * @param weight the smoothing weight
+     */
+    public void addLog(double[][] scores, int[] docs, int[] counts, int n, int row, double weight) {
+        for (int i = 0; i < size(); ++i) {
+            double log = Math.log(weight + get(row, i));
+            for (int k = 0; k < n; ++k) {
+                scores[docs[k]][i] += counts[k] * log;
+            }
+        }
+    }
+
+    /**
+     * Multiply the probabilities of some languages by the smoothed probabilities of an n-gram row.
+     *
+     * @param prob the probabilities of the languages, in the order of the language indexes
+     * @param row the row, see {@link #row(long)}
+     * @param weight the smoothing weight
+     * @param langs the language indexes
+     */
+    public void update(double[] prob, int row, double weight, int[] langs) {
+        for (int i = 0; i < langs.length; ++i) {
+            prob[i] *= weight + get(row, langs[i]);
+        }
+    }
+
+    /**
+     * Add the logarithms of the smoothed probabilities of an n-gram row to the scores of some languages.
+     *
+     * @param score the scores of the languages, in the order of the language indexes
+     * @param row the row, see {@link #row(long)}
+     * @param weight the smoothing weight
+     * @param count the number of occurrences of the n-gram
+     * @param langs the language indexes
+     */
+    public void addLog(double[] score, int row, double weight, int count, int[] langs) {
+        for (int i = 0; i < langs.length; ++i) {
+            score[i] += count * Math.log(weight + get(row, langs[i]));
+        }
+    }
+}
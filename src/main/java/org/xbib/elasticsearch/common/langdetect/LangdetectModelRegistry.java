@@ -0,0 +1,239 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A node-wide registry of language models.
+ *
+ * Models are keyed by profile and language list. All callers asking for the same key share a single
+ * {@link LangdetectModel} instance. A model is loaded by the first caller without holding the registry
+ * lock, so loading a model does not block callers asking for other models. Each model keeps track of its
+ * owners, for example the UUIDs of the indices whose mappings use the model, and is dropped when the last
+ * owner has released it.
+ *
+ * Model files of memory-mapped models are kept in the directory given by the node setting
+ * {@code langdetect.model_directory}, which defaults to the directory {@code langdetect} in the first data
+ * path of the node, or to the temporary directory if the settings have no home path. The directory must be
+ * writable under the security manager, i.e. it must be inside a data path or the temporary directory.
+ * The file of a model is deleted when the model is dropped. The files belong to the node, so a mapped model
+ * is shared by the indices and pipelines of one node, but not between nodes.
+ *
+ * The registry also keeps the detection services with a result cache by owner and name, so the statistics
+ * of all caches of a node can be reported. The services of an owner are dropped when the owner is released.
+ */
+public class LangdetectModelRegistry implements Closeable {
+
+    public static final String MODEL_DIRECTORY = "langdetect.model_directory";
+
+    private static final Logger logger = LogManager.getLogger(LangdetectModelRegistry.class.getName());
+
+    private final Map<String, Entry> models = new HashMap<>();
+
+    private final Map<String, Map<String, LangdetectService>> services = new HashMap<>();
+
+    private final Path directory;
+
+    public LangdetectModelRegistry() {
+        this(Settings.EMPTY);
+    }
+
+    /**
+     * Create a registry for a node.
+     *
+     * @param settings the node settings, with the home path of the node for the default directory of model files
+     */
+    public LangdetectModelRegistry(Settings settings) {
+        String path = settings.get(MODEL_DIRECTORY);
+        if (path != null) {
+            this.directory = Paths.get(path);
+        } else if (Environment.PATH_HOME_SETTING.exists(settings)) {
+            this.directory = new Environment(settings).dataFiles()[0].resolve("langdetect");
+        } else {
+            this.directory = Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+    }
+
+    /**
+     * The directory of the files of memory-mapped models.
+     *
+     * @return the directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Acquire the model for the profile and languages given in the settings.
+     *
+     * @param owner the owner of the reference, e.g. an index UUID
+     * @param settings the settings with the keys "profile", "languages" and "model"
+     * @return the shared model
+     * @throws IOException if the model can not be loaded
+     */
+    public LangdetectModel acquire(String owner, Settings settings) throws IOException {
+        return acquire(owner, settings.get("profile"), settings.getAsArray("languages"),
+                settings.get("model", LangdetectModel.HEAP));
+    }
+
+    /**
+     * Acquire the heap model for a profile and a list of languages.
+     *
+     * @param owner the owner of the reference, e.g. an index UUID
+     * @param profile the profile name, or null for the default profile
+     * @param languages the language codes, or an empty array for all languages of the profile
+     * @return the shared model
+     * @throws IOException if the model can not be loaded
+     */
+    public LangdetectModel acquire(String owner, String profile, String[] languages) throws IOException {
+        return acquire(owner, profile, languages, LangdetectModel.HEAP);
+    }
+
+    /**
+     * Acquire the model for a profile and a list of languages. Repeated acquisitions by the same owner
+     * are counted only once.
+     *
+     * @param owner the owner of the reference, e.g. an index UUID
+     * @param profile the profile name, or null for the default profile
+     * @param languages the language codes, or an empty array for all languages of the profile
+     * @param type the model type
+     * @return the shared model
+     * @throws IOException if the model can not be loaded
+     */
+    public LangdetectModel acquire(String owner, String profile, String[] languages, String type)
+            throws IOException {
+        String key = type + ":" + key(profile, languages);
+        Entry entry;
+        boolean load = false;
+        synchronized (this) {
+            entry = models.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                models.put(key, entry);
+                load = true;
+            }
+            entry.owners.add(owner);
+        }
+        if (load) {
+            // the model is loaded outside of the lock, so other keys are not blocked, and callers
+            // asking for the same key wait for this load
+            try {
+                entry.model.complete(LangdetectModel.load(profile, languages, type, directory));
+                logger.debug("loaded language model {}", key);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    models.remove(key, entry);
+                }
+                entry.model.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return entry.model.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading language model " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("failed to load language model " + key, e.getCause());
+        }
+    }
+
+    /**
+     * Register a detection service whose result cache is reported by {@link #getCacheStats()}. A service
+     * without a cache is ignored, and a service with the same owner and name replaces the previous one.
+     *
+     * @param owner the owner of the service, e.g. an index UUID
+     * @param name the name of the service, e.g. a field name
+     * @param service the service
+     */
+    public synchronized void registerCache(String owner, String name, LangdetectService service) {
+        if (service.getCacheStats() != null) {
+            services.computeIfAbsent(owner, k -> new TreeMap<>()).put(name, service);
+        }
+    }
+
+    /**
+     * The statistics of the result caches of all registered services.
+     *
+     * @return the cache statistics by owner and name
+     */
+    public synchronized Map<String, Map<String, Cache.CacheStats>> getCacheStats() {
+        Map<String, Map<String, Cache.CacheStats>> stats = new TreeMap<>();
+        for (Map.Entry<String, Map<String, LangdetectService>> entry : services.entrySet()) {
+            Map<String, Cache.CacheStats> map = new TreeMap<>();
+            for (Map.Entry<String, LangdetectService> service : entry.getValue().entrySet()) {
+                map.put(service.getKey(), service.getValue().getCacheStats());
+            }
+            stats.put(entry.getKey(), map);
+        }
+        return stats;
+    }
+
+    /**
+     * Release all models held by an owner. Models without any remaining owner are removed.
+     *
+     * @param owner the owner
+     */
+    public synchronized void release(String owner) {
+        services.remove(owner);
+        Iterator<Map.Entry<String, Entry>> it = models.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (entry.getValue().owners.remove(owner) && entry.getValue().owners.isEmpty()) {
+                it.remove();
+                entry.getValue().dispose();
+                logger.debug("released language model {}", entry.getKey());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return models.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Entry entry : models.values()) {
+            entry.dispose();
+        }
+        models.clear();
+        services.clear();
+    }
+
+    private static String key(String profile, String[] languages) {
+        return (profile == null ? "" : profile) + "/" + String.join(",", languages);
+    }
+
+    private static class Entry {
+
+        private final CompletableFuture<LangdetectModel> model = new CompletableFuture<>();
+
+        private final Set<String> owners = new HashSet<>();
+
+        private void dispose() {
+            // a model that is still loading is disposed by nobody, its file is reused by the next load
+            if (model.isDone() && !model.isCompletedExceptionally()) {
+                model.join().dispose();
+            }
+        }
+    }
+}
@@ -3,203 +3,579 @@ package org.xbib.elasticsearch.common.langdetect;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.hash.MurmurHash3;
 import org.elasticsearch.common.settings.Settings;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.regex.Pattern;
 
 /**
+ * Language detection on a {@link LangdetectModel}.
  *
+ * A service is immutable once it is constructed and can be used by many threads at the same time. The
+ * mutable state of a detection, such as the n-gram row buffer, the probabilities of a trial and the random
+ * number generator, is kept in per-thread scratch space.
  */
 public class LangdetectService {
-    private static final String ALL_LANGUAGES =
-        "af,ar,bg,bn,ca,cs,da,de,el,en,es,et,fa,fi,fr,gu,he,hi,hr,hu,id,it,ja,kn,ko,lt,lv,mk,ml,mr,ne,nl,no,pa,pl,pt," +
-            "ro,ru,si,sk,sl,so,sq,sv,sw,ta,te,th,tl,tr,uk,ur,vi,zh-cn,zh-tw";
+
+    /**
+     * The detection mode that averages random sampling trials, the default.
+     */
+    public static final String TRIALS = "trials";
+
+    /**
+     * The detection mode that scores all n-grams of a text once and is deterministic.
+     */
+    public static final String EXACT = "exact";
+
     private static final Logger logger = LogManager.getLogger(LangdetectService.class.getName());
-    private static final Pattern word = Pattern.compile("[\\P{IsWord}]", Pattern.UNICODE_CHARACTER_CLASS);
     private static final Settings DEFAULT_SETTINGS = Settings.builder().put("profile", "merged-average")
-                                                                       .put("languages", ALL_LANGUAGES)
+                                                                       .put("languages", LangdetectModel.ALL_LANGUAGES)
                                                                        .build();
+
+    /**
+     * Row buffers up to this length are kept per thread, longer ones are allocated for a single detection.
+     */
+    private static final int MAX_SCRATCH_ROWS = 1 << 20;
+
+    /**
+     * The number of chars read at once by {@link #detectAll(Reader, long)}.
+     */
+    private static final int STREAM_CHUNK_SIZE = 4096;
+
+    /**
+     * The number of trials that must agree on the top language before the adaptive mode stops.
+     */
+    private static final int MIN_AGREEING_TRIALS = 2;
+
+    /**
+     * The margin of the top language over the second language at which the adaptive mode stops.
+     */
+    private static final double ADAPTIVE_MARGIN = 0.5d;
+
+    /**
+     * The adaptive iteration budget per distinct n-gram of a text.
+     */
+    private static final int ITERATIONS_PER_NGRAM = 10;
+
+    /**
+     * The minimum adaptive iteration budget.
+     */
+    private static final int MIN_ITERATIONS = 100;
+
+    private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
     private final Settings settings;
-    private Map<String, double[]> wordLangProbMap = new HashMap<>();
 
-    private List<String> langlist = new LinkedList<>();
+    private final LangdetectModel model;
+
+    private final Map<String, String> langmap;
+
+    private final String profile;
+
+    private final double alpha;
 
-    private Map<String, String> langmap = new HashMap<>();
+    private final double alphaWidth;
 
-    private String profile;
+    private final int nTrial;
 
-    private double alpha;
+    private final double[] priorMap;
 
-    private double alphaWidth;
+    private final int iterationLimit;
 
-    private int nTrial;
+    private final double probThreshold;
 
-    private double[] priorMap;
+    private final double convThreshold;
 
-    private int iterationLimit;
+    /**
+     * The probability below which a language is dropped from a trial, or 0 if languages are not dropped.
+     */
+    private final double pruneThreshold;
 
-    private double probThreshold;
+    /**
+     * If true, the number of trials and the iteration budget adapt to the text.
+     */
+    private final boolean adaptive;
 
-    private double convThreshold;
+    /**
+     * The indexes of all languages, for trials with pruning or in adaptive mode.
+     */
+    private final int[] allLanguages;
 
-    private int baseFreq;
+    private final int baseFreq;
 
-    private Pattern filterPattern;
+    private final Pattern filterPattern;
 
-    private boolean isStarted;
+    private final boolean exact;
+
+    private final int max;
+
+    /**
+     * The results of recent detections, or null if results are not cached.
+     */
+    private final Cache<CacheKey, List<Language>> cache;
+
+    private final int cacheMaxLength;
+
+    /**
+     * The router to the candidate languages by script, or null if all languages are scored.
+     */
+    private final ScriptRouter router;
 
     public LangdetectService() {
         this(DEFAULT_SETTINGS);
     }
 
     public LangdetectService(Settings settings) {
-        this(settings, null);
+        this(settings, (String) null);
     }
 
     public LangdetectService(Settings settings, String profile) {
+        this(settings, loadModel(settings, settings.get("profile", profile)));
+    }
+
+    /**
+     * Create a detection service on a shared model, e.g. from {@link LangdetectModelRegistry}.
+     *
+     * @param settings the detection settings
+     * @param model the model
+     */
+    public LangdetectService(Settings settings, LangdetectModel model) {
         this.settings = settings;
-        this.profile = settings.get("profile", profile);
-        load(settings);
-        init();
+        this.profile = model.getProfile();
+        this.model = model;
+        this.langmap = loadLanguageMap(settings, profile);
+        this.priorMap = null;
+        this.nTrial = settings.getAsInt("number_of_trials", 7);
+        this.alpha = settings.getAsDouble("alpha", 0.5);
+        this.alphaWidth = settings.getAsDouble("alpha_width", 0.05);
+        this.iterationLimit = settings.getAsInt("iteration_limit", 10000);
+        this.probThreshold = settings.getAsDouble("prob_threshold", 0.1);
+        this.convThreshold = settings.getAsDouble("conv_threshold", 0.99999);
+        this.pruneThreshold = settings.getAsDouble("prune_threshold", 0d);
+        this.adaptive = settings.getAsBoolean("adaptive", false);
+        this.allLanguages = new int[model.size()];
+        for (int i = 0; i < allLanguages.length; i++) {
+            allLanguages[i] = i;
+        }
+        this.baseFreq = settings.getAsInt("base_freq", 10000);
+        this.filterPattern = settings.get("pattern") != null ?
+                Pattern.compile(settings.get("pattern"), Pattern.UNICODE_CHARACTER_CLASS) : null;
+        String mode = settings.get("mode", TRIALS);
+        if (!TRIALS.equals(mode) && !EXACT.equals(mode)) {
+            throw new IllegalArgumentException("unknown detection mode: " + mode);
+        }
+        this.exact = EXACT.equals(mode);
+        this.max = settings.getAsInt("max", Integer.MAX_VALUE);
+        int cacheSize = settings.getAsInt("cache_size", 0);
+        this.cache = cacheSize > 0 ? CacheBuilder.<CacheKey, List<Language>>builder()
+                .setMaximumWeight(cacheSize).build() : null;
+        this.cacheMaxLength = settings.getAsInt("cache_max_length", 1000);
+        this.router = settings.getAsBoolean("script_routing", false) ? new ScriptRouter(model.getLanguages()) : null;
     }
 
     public Settings getSettings() {
         return settings;
     }
 
-    private void load(Settings settings) {
+    public LangdetectModel getModel() {
+        return model;
+    }
+
+    /**
+     * The hits, misses and evictions of the result cache.
+     *
+     * @return the cache statistics, or null if results are not cached
+     */
+    public Cache.CacheStats getCacheStats() {
+        return cache != null ? cache.stats() : null;
+    }
+
+    private static LangdetectModel loadModel(Settings settings, String profile) {
         if (settings.equals(Settings.EMPTY)) {
-            return;
+            return new HeapLangdetectModel(profile);
         }
         try {
-            addProfiles();
+            return LangdetectModel.load(profile, settings.getAsArray("languages"),
+                    settings.get("model", LangdetectModel.HEAP), Paths.get(System.getProperty("java.io.tmpdir")));
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             throw new ElasticsearchException(e.getMessage() + " profile=" + profile);
         }
+    }
+
+    private static Map<String, String> loadLanguageMap(Settings settings, String profile) {
+        if (settings.equals(Settings.EMPTY)) {
+            return new HashMap<>();
+        }
         try {
             // map by settings
             Settings map = Settings.builder().put(settings.getByPrefix("map.")).build();
             if (map.getAsMap().isEmpty()) {
                 // is in "map" a resource name?
                 String s = settings.get("map") != null ?
-                        settings.get("map") : this.profile + "language.json";
-                InputStream in = getClass().getResourceAsStream(s);
+                        settings.get("map") : profile + "language.json";
+                InputStream in = LangdetectService.class.getResourceAsStream(s);
                 if (in != null) {
                     map = Settings.builder().loadFromStream(s, in).build();
                 }
             }
-            this.langmap = map.getAsMap();
+            return map.getAsMap();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             throw new ElasticsearchException(e.getMessage());
         }
     }
 
-    private void init() {
-        this.priorMap = null;
-        this.nTrial = settings.getAsInt("number_of_trials", 7);
-        this.alpha = settings.getAsDouble("alpha", 0.5);
-        this.alphaWidth = settings.getAsDouble("alpha_width", 0.05);
-        this.iterationLimit = settings.getAsInt("iteration_limit", 10000);
-        this.probThreshold = settings.getAsDouble("prob_threshold", 0.1);
-        this.convThreshold = settings.getAsDouble("conv_threshold", 0.99999);
-        this.baseFreq = settings.getAsInt("base_freq", 10000);
-        this.filterPattern = settings.get("pattern") != null ?
-                Pattern.compile(settings.get("pattern"), Pattern.UNICODE_CHARACTER_CLASS) : null;
-        isStarted = true;
+    /**
+     * Add a language profile to an empty model, before the service is used for detection. This is not
+     * thread-safe, and models loaded from profile resources can not be extended.
+     */
+    public void addProfile(LangProfile profile, int index, int langsize) throws IOException {
+        model.addProfile(profile, index, langsize);
     }
 
-    private void addProfiles() throws IOException {
-        String[] langKeys = settings.getAsArray("languages");
-        boolean ignoreNullResources = false;
-        if (langKeys.length == 0) {
-            langKeys = ALL_LANGUAGES.split(",");
-            ignoreNullResources = true;
+    public String getProfile() {
+        return profile;
+    }
+
+    public List<Language> detectAll(String text) throws LanguageDetectionException {
+        if (cache == null || text.length() > cacheMaxLength) {
+            return detect(text);
+        }
+        if (filterPattern != null && !filterPattern.matcher(NGram.normalizeVietnamese(text)).matches()) {
+            return Collections.emptyList();
+        }
+        int[] langs = router != null ? router.route(text) : null;
+        if (langs != null && langs.length == 1) {
+            return languages(certain(langs[0]));
+        }
+        Scratch scratch = LangdetectService.scratch.get();
+        int[] rows = scratch.rows(text.length() * NGram.N_GRAM);
+        return detectCached(scratch, rows, scratch.ngram.extract(text, model, rows), langs);
+    }
+
+    private List<Language> detect(String text) throws LanguageDetectionException {
+        if (filterPattern != null && !filterPattern.matcher(NGram.normalizeVietnamese(text)).matches()) {
+            return Collections.emptyList();
         }
-        List<LangProfile> langProfiles = new ArrayList<>(langKeys.length);
-        for (String langKey : langKeys) {
-            if (langKey == null || langKey.isEmpty()) {
+        return languages(detectBlock(text));
+    }
+
+    /**
+     * Detect the languages of UTF-8 encoded text. The result is the same as the result of
+     * {@link #detectAll(String)} for the decoded text, but the text is decoded while the n-grams are
+     * extracted, without a copy. Only if a filter pattern is set, the text is decoded into a string.
+     *
+     * @param utf8 the UTF-8 encoded text
+     * @return the detected languages
+     * @throws IOException if the bytes can not be read
+     */
+    public List<Language> detectAll(BytesReference utf8) throws IOException {
+        if (filterPattern != null) {
+            return detectAll(utf8.utf8ToString());
+        }
+        int[] langs = router != null ? router.route(utf8) : null;
+        if (langs != null && langs.length == 1) {
+            return languages(certain(langs[0]));
+        }
+        Scratch scratch = LangdetectService.scratch.get();
+        // each byte ends at most N_GRAM n-grams
+        int[] rows = scratch.rows(utf8.length() * NGram.N_GRAM);
+        int size = scratch.ngram.extract(utf8, model, rows);
+        if (cache == null || utf8.length() > cacheMaxLength) {
+            return languages(detectBlock(scratch, rows, size, langs));
+        }
+        return detectCached(scratch, rows, size, langs);
+    }
+
+    /**
+     * Look up the result of extracted n-grams in the cache, or detect and cache it. The key is a hash of
+     * the n-gram rows and the candidate languages, so texts that differ only in characters that are
+     * normalized away, e.g. punctuation, share an entry, and a string and its UTF-8 bytes share an entry.
+     */
+    private List<Language> detectCached(Scratch scratch, int[] rows, int size, int[] langs)
+            throws LanguageDetectionException {
+        CacheKey key = new CacheKey(scratch, rows, size, langs);
+        List<Language> languages = cache.get(key);
+        if (languages == null) {
+            languages = languages(detectBlock(scratch, rows, size, langs));
+            cache.put(key, languages);
+        }
+        return languages;
+    }
+
+    /**
+     * The detected languages, as an unmodifiable list, so a result can be shared through the cache.
+     */
+    private List<Language> languages(double[] langprob) {
+        List<Language> languages = sortProbability(new ArrayList<>(), langprob);
+        return Collections.unmodifiableList(new ArrayList<>(languages.subList(0, Math.min(languages.size(), max))));
+    }
+
+    /**
+     * Detect the languages of a text read from a reader. See {@link #detectAll(Reader, long)}.
+     *
+     * @param reader the reader
+     * @return the detected languages
+     * @throws IOException if the reader fails
+     */
+    public List<Language> detectAll(Reader reader) throws IOException {
+        return detectAll(reader, Long.MAX_VALUE);
+    }
+
+    /**
+     * Detect the languages of a text read from a reader, with a budget of chars.
+     *
+     * The text is read in chunks, and the n-grams of each chunk are scored as in exact mode. Reading stops
+     * when the budget is spent, at the end of the text, or as soon as the same language has passed the
+     * convergence threshold after two chunks in a row. A long text in a single language costs about as
+     * much as its first chunks. Chunks end after white space, so the n-grams are the same as if the text
+     * was read at once. The filter pattern and the script routing are not applied.
+     *
+     * @param reader the reader
+     * @param budget the maximum number of chars to read
+     * @return the detected languages
+     * @throws IOException if the reader fails
+     */
+    public List<Language> detectAll(Reader reader, long budget) throws IOException {
+        Scratch scratch = LangdetectService.scratch.get();
+        char[] buffer = new char[STREAM_CHUNK_SIZE];
+        int[] rows = scratch.rows(STREAM_CHUNK_SIZE * NGram.N_GRAM);
+        double[] score = logPrior();
+        double[] prob = new double[score.length];
+        int count = 0;
+        int top = -1;
+        int length = 0;
+        long remaining = budget;
+        boolean eof = false;
+        while (!eof) {
+            int n = reader.read(buffer, length, (int) Math.min(buffer.length - length, remaining));
+            if (n < 0) {
+                eof = true;
+            } else {
+                length += n;
+                remaining -= n;
+                eof = remaining <= 0;
+            }
+            int end = eof ? length : chunkEnd(buffer, length);
+            if (end == 0) {
                 continue;
             }
-            String langPath = "/langdetect/" + (this.profile == null ? "" : this.profile + "/") + langKey;
-            InputStream in = getClass().getResourceAsStream(langPath);
-            if (in == null) {
-                if (ignoreNullResources) {
-                    continue;
+            int size = scratch.ngram.extract(CharBuffer.wrap(buffer, 0, end), model, rows);
+            System.arraycopy(buffer, end, buffer, 0, length - end);
+            length -= end;
+            if (size == 0) {
+                continue;
+            }
+            addLog(score, rows, size);
+            count += size;
+            System.arraycopy(score, 0, prob, 0, score.length);
+            softmax(prob);
+            int best = 0;
+            for (int i = 1; i < prob.length; i++) {
+                if (prob[i] > prob[best]) {
+                    best = i;
                 }
-                throw new IOException("profile '" + langKey + "' not found, path = " + langPath);
             }
-            langProfiles.add(new LangProfile(in));
+            if (prob[best] > convThreshold && best == top) {
+                break;
+            }
+            top = best;
         }
-        for (int i = 0; i < langProfiles.size(); i++) {
-            addProfile(langProfiles.get(i), i, langProfiles.size());
+        return count > 0 ? languages(softmax(score)) : Collections.emptyList();
+    }
+
+    /**
+     * The end of the chunk to score, after the last white space in the buffer, or 0 if the buffer has no
+     * white space and is not full yet. A full buffer without white space is scored as a whole.
+     */
+    private static int chunkEnd(char[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            char ch = buffer[i];
+            if (ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t') {
+                return i + 1;
+            }
         }
-        logger.debug("language detection service installed for {}", langlist);
+        if (length < buffer.length) {
+            return 0;
+        }
+        // do not split a surrogate pair
+        return Character.isHighSurrogate(buffer[length - 1]) ? length - 1 : length;
     }
 
-    public void addProfile(LangProfile profile, int index, int langsize) throws IOException {
-        String lang = profile.getName();
-        if (langlist.contains(lang)) {
-            throw new IOException("duplicate of the same language profile: " + lang);
+    /**
+     * Detect the languages of many texts. The result for each text is the same as the result of
+     * {@link #detectAll(String)}.
+     *
+     * In exact mode, the n-grams of all texts are scored together, grouped by n-gram, so each row of the
+     * model is read once per batch instead of once per text. In trials mode, the n-grams of each text are
+     * sampled at random, and the texts are detected one after the other. With script routing, the candidate
+     * languages differ from text to text, so the texts are also detected one after the other. The results
+     * are cached as for single texts, and in exact mode, only the texts without a cached result are scored.
+     *
+     * @param texts the texts
+     * @return the detected languages, one list per text
+     */
+    public List<List<Language>> detectAll(List<? extends CharSequence> texts) throws LanguageDetectionException {
+        List<List<Language>> result = new ArrayList<>(texts.size());
+        if (!exact || router != null) {
+            for (CharSequence text : texts) {
+                result.add(detectAll(text.toString()));
+            }
+            return result;
+        }
+        result.addAll(Collections.nCopies(texts.size(), null));
+        CacheKey[] keys = new CacheKey[texts.size()];
+        double[][] scores = detectExact(texts, result, keys);
+        for (int doc = 0; doc < scores.length; doc++) {
+            if (result.get(doc) == null) {
+                List<Language> languages = scores[doc] != null ? languages(scores[doc]) : Collections.emptyList();
+                if (keys[doc] != null) {
+                    cache.put(keys[doc], languages);
+                }
+                result.set(doc, languages);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Score the n-grams of many texts in exact mode. The n-grams are packed with the index of their text
+     * into one array and sorted by row, then by text, so the n-grams of each text are added in the same
+     * order as in {@link #detectExact(int[], int)} and give identical probabilities. The logarithms of each
+     * row are computed once and added to all texts with the row.
+     *
+     * If results are cached, the texts with a cached result are not scored.
+     *
+     * @param results set to the cached result of each text that has one
+     * @param keys set to the cache key of each text that is scored and may be cached
+     * @return the probabilities per text, or null for texts without languages or with a cached result
+     */
+    private double[][] detectExact(List<? extends CharSequence> texts, List<List<Language>> results,
+                                   CacheKey[] keys) {
+        double[][] scores = new double[texts.size()][];
+        Scratch scratch = LangdetectService.scratch.get();
+        long[] entries = new long[0];
+        int size = 0;
+        for (int doc = 0; doc < texts.size(); doc++) {
+            CharSequence text = texts.get(doc);
+            if (filterPattern != null &&
+                    !filterPattern.matcher(NGram.normalizeVietnamese(text.toString())).matches()) {
+                continue;
+            }
+            int[] rows = scratch.rows(text.length() * NGram.N_GRAM);
+            int n = scratch.ngram.extract(text, model, rows);
+            if (cache != null && text.length() <= cacheMaxLength) {
+                CacheKey key = new CacheKey(scratch, rows, n, null);
+                List<Language> languages = cache.get(key);
+                if (languages != null) {
+                    results.set(doc, languages);
+                    continue;
+                }
+                keys[doc] = key;
+            }
+            if (n == 0) {
+                continue;
+            }
+            scores[doc] = logPrior();
+            if (size + n > entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(size + n, entries.length * 2));
+            }
+            for (int i = 0; i < n; i++) {
+                entries[size++] = (long) rows[i] << 32 | doc;
+            }
         }
-        langlist.add(lang);
-        for (String s : profile.getFreq().keySet()) {
-            if (!wordLangProbMap.containsKey(s)) {
-                wordLangProbMap.put(s, new double[langsize]);
+        Arrays.sort(entries, 0, size);
+        double weight = alpha / baseFreq;
+        int[] docs = new int[Math.min(size, texts.size())];
+        int[] counts = new int[docs.length];
+        for (int start = 0, end; start < size; start = end) {
+            // collect the texts of the row and the counts of the row in each text
+            int row = (int) (entries[start] >>> 32);
+            int n = 0;
+            for (end = start; end < size && (int) (entries[end] >>> 32) == row; n++) {
+                int next = end + 1;
+                while (next < size && entries[next] == entries[end]) {
+                    next++;
+                }
+                docs[n] = (int) entries[end];
+                counts[n] = next - end;
+                end = next;
             }
-            int length = s.length();
-            if (length >= 1 && length <= 3) {
-                double prob = profile.getFreq().get(s).doubleValue() / profile.getNWords().get(length - 1);
-                wordLangProbMap.get(s)[index] = prob;
+            model.addLog(scores, docs, counts, n, row, weight);
+        }
+        for (int doc = 0; doc < scores.length; doc++) {
+            if (scores[doc] != null) {
+                softmax(scores[doc]);
             }
         }
+        return scores;
     }
 
-    public String getProfile() {
-        return profile;
+    private double[] detectBlock(CharSequence text) throws LanguageDetectionException {
+        int[] langs = router != null ? router.route(text) : null;
+        if (langs != null && langs.length == 1) {
+            return certain(langs[0]);
+        }
+        Scratch scratch = LangdetectService.scratch.get();
+        // each character ends at most N_GRAM n-grams
+        int[] rows = scratch.rows(text.length() * NGram.N_GRAM);
+        return detectBlock(scratch, rows, scratch.ngram.extract(text, model, rows), langs);
     }
 
-    public List<Language> detectAll(String text) throws LanguageDetectionException {
-        text = NGram.normalizeVietnamese(text);
-        if (!isStarted) {
-            load(settings);
-            init();
-        }
-        List<Language> languages = new ArrayList<>();
-        if (filterPattern != null && !filterPattern.matcher(text).matches()) {
-            return languages;
-        }
-        List<String> list = new ArrayList<>();
-        languages = sortProbability(languages, detectBlock(list, text));
-        return languages.subList(0, Math.min(languages.size(), settings.getAsInt("max", languages.size())));
-    }
-
-    private double[] detectBlock(List<String> list, String string) throws LanguageDetectionException {
-        // clean all non-work characters from text
-        String text = string.replaceAll(word.pattern(), " ");
-        extractNGrams(list, text);
-        double[] langprob = new double[langlist.size()];
-        if (list.isEmpty()) {
+    /**
+     * The probabilities if the script of a text admits only one language.
+     */
+    private double[] certain(int lang) {
+        double[] langprob = new double[model.size()];
+        langprob[lang] = 1d;
+        return langprob;
+    }
+
+    private double[] detectBlock(Scratch scratch, int[] rows, int size, int[] langs)
+            throws LanguageDetectionException {
+        double[] langprob = new double[model.size()];
+        if (size == 0) {
+            return langprob;
+        }
+        if (!exact && (langs != null || pruneThreshold > 0d || adaptive)) {
+            return detectTrials(scratch, rows, size, langs != null ? langs : allLanguages);
+        }
+        if (langs != null) {
+            double[] prob = detectExact(rows, size, langs);
+            for (int i = 0; i < langs.length; i++) {
+                langprob[langs[i]] = prob[i];
+            }
             return langprob;
         }
-        Random rand = new Random();
-        Long seed = 0L;
-        rand.setSeed(seed);
+        if (exact) {
+            return detectExact(rows, size);
+        }
+        Random rand = scratch.random;
+        rand.setSeed(0L);
+        double[] prob = scratch.prob(model.size());
         for (int t = 0; t < nTrial; ++t) {
-            double[] prob = initProbability();
+            initProbability(prob);
             double a = this.alpha + rand.nextGaussian() * alphaWidth;
             for (int i = 0;; ++i) {
-                int r = rand.nextInt(list.size());
-                updateLangProb(prob, list.get(r), a);
+                int r = rand.nextInt(size);
+                updateLangProb(prob, rows[r], a);
                 if (i % 5 == 0 && normalizeProb(prob) > convThreshold || i >= iterationLimit) {
                     break;
                 }
@@ -211,43 +587,232 @@ public class LangdetectService {
         return langprob;
     }
 
-    private double[] initProbability() {
-        double[] prob = new double[langlist.size()];
-        if (priorMap != null) {
-            System.arraycopy(priorMap, 0, prob, 0, prob.length);
-        } else {
-            for (int i = 0; i < prob.length; ++i) {
-                prob[i] = 1.0 / langlist.size();
+    /**
+     * Detect the probabilities of some languages by random sampling trials, as for all languages.
+     *
+     * If a prune threshold is set, the languages whose probability has fallen below the threshold are
+     * dropped from the active languages of a trial after each normalization, so the later iterations of
+     * a trial update only the languages that are still competing. Dropped languages keep probability 0.
+     *
+     * In adaptive mode, the iteration budget is scaled to the number of distinct n-grams, see
+     * {@link #iterationBudget}, and the trials stop early, see {@link #settled}.
+     *
+     * @return the probabilities of all languages
+     */
+    private double[] detectTrials(Scratch scratch, int[] rows, int size, int[] langs) {
+        double[] langprob = new double[model.size()];
+        Random rand = scratch.random;
+        rand.setSeed(0L);
+        int budget = adaptive ? iterationBudget(scratch, rows, size) : iterationLimit;
+        int top = -1;
+        for (int t = 0; t < nTrial; ++t) {
+            int[] active = langs;
+            double[] prob = new double[langs.length];
+            Arrays.fill(prob, 1.0 / langs.length);
+            double a = this.alpha + rand.nextGaussian() * alphaWidth;
+            double weight = a / baseFreq;
+            for (int i = 0;; ++i) {
+                int r = rand.nextInt(size);
+                model.update(prob, rows[r], weight, active);
+                if (i % 5 == 0) {
+                    if (normalizeProb(prob) > convThreshold) {
+                        break;
+                    }
+                    if (pruneThreshold > 0d) {
+                        int n = 0;
+                        for (double p : prob) {
+                            if (p >= pruneThreshold) {
+                                n++;
+                            }
+                        }
+                        if (n > 0 && n < active.length) {
+                            int[] survivors = new int[n];
+                            double[] survivorProb = new double[n];
+                            for (int j = 0, k = 0; j < active.length; j++) {
+                                if (prob[j] >= pruneThreshold) {
+                                    survivors[k] = active[j];
+                                    survivorProb[k++] = prob[j];
+                                }
+                            }
+                            active = survivors;
+                            prob = survivorProb;
+                        }
+                    }
+                }
+                if (i >= budget) {
+                    break;
+                }
+            }
+            for (int j = 0; j < active.length; ++j) {
+                langprob[active[j]] += prob[j] / nTrial;
+            }
+            if (adaptive) {
+                int trialTop = active[argmax(prob)];
+                if (t == 0 || trialTop == top) {
+                    top = trialTop;
+                } else {
+                    top = -2;
+                }
+                if (top >= 0 && settled(langprob, t + 1)) {
+                    break;
+                }
             }
         }
-        return prob;
+        return langprob;
     }
 
-    private void extractNGrams(List<String> list, String text) {
-        NGram ngram = new NGram();
-        for (int i = 0; i < text.length(); ++i) {
-            ngram.addChar(text.charAt(i));
-            for (int n = 1; n <= NGram.N_GRAM; ++n) {
-                String w = ngram.get(n);
-                if (w != null && wordLangProbMap.containsKey(w)) {
-                    list.add(w);
-                }
+    /**
+     * The iteration budget of a trial in adaptive mode: {@link #ITERATIONS_PER_NGRAM} iterations per distinct
+     * n-gram, at least {@link #MIN_ITERATIONS} and at most the iteration limit. The distinct n-grams are
+     * counted only up to the number that reaches the iteration limit.
+     */
+    private int iterationBudget(Scratch scratch, int[] rows, int size) {
+        int max = iterationLimit / ITERATIONS_PER_NGRAM + 1;
+        BitSet seen = scratch.seen;
+        int distinct = 0;
+        int i = 0;
+        for (; i < size && distinct < max; i++) {
+            if (!seen.get(rows[i])) {
+                seen.set(rows[i]);
+                distinct++;
             }
         }
+        for (int j = 0; j < i; j++) {
+            seen.clear(rows[j]);
+        }
+        return (int) Math.min(iterationLimit, Math.max(MIN_ITERATIONS, (long) ITERATIONS_PER_NGRAM * distinct));
     }
 
-    private boolean updateLangProb(double[] prob, String word, double alpha) {
-        if (word == null || !wordLangProbMap.containsKey(word)) {
+    /**
+     * Check if the trials run so far, which agree on the top language, have settled: at least
+     * {@link #MIN_AGREEING_TRIALS} trials have run, and the averaged probability of the top language
+     * exceeds the second by {@link #ADAPTIVE_MARGIN}. If so, the probabilities are rescaled to the
+     * average of the trials that were run.
+     *
+     * @param langprob the sums of the probabilities of the trials, each divided by the number of trials
+     * @param trials the number of trials run so far
+     * @return true if no more trials are needed
+     */
+    private boolean settled(double[] langprob, int trials) {
+        if (trials < MIN_AGREEING_TRIALS || trials >= nTrial) {
             return false;
         }
-        double[] langProbMap = wordLangProbMap.get(word);
-        double weight = alpha / baseFreq;
-        for (int i = 0; i < prob.length; ++i) {
-            prob[i] *= weight + langProbMap[i];
+        double first = 0d;
+        double second = 0d;
+        for (double p : langprob) {
+            if (p > first) {
+                second = first;
+                first = p;
+            } else if (p > second) {
+                second = p;
+            }
+        }
+        double scale = (double) nTrial / trials;
+        if ((first - second) * scale < ADAPTIVE_MARGIN) {
+            return false;
+        }
+        for (int i = 0; i < langprob.length; i++) {
+            langprob[i] *= scale;
         }
         return true;
     }
 
+    private static int argmax(double[] values) {
+        int max = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[max]) {
+                max = i;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Score the n-grams for the candidate languages in exact mode.
+     *
+     * @return the probabilities in the order of the candidate languages
+     */
+    private double[] detectExact(int[] rows, int size, int[] langs) {
+        double[] score = new double[langs.length];
+        Arrays.fill(score, Math.log(1.0 / langs.length));
+        Arrays.sort(rows, 0, size);
+        double weight = alpha / baseFreq;
+        for (int start = 0, end; start < size; start = end) {
+            end = start + 1;
+            while (end < size && rows[end] == rows[start]) {
+                end++;
+            }
+            model.addLog(score, rows[start], weight, end - start, langs);
+        }
+        return softmax(score);
+    }
+
+    /**
+     * Sum the log-probabilities of all n-grams, each distinct n-gram weighted by its count, and turn the
+     * sums into probabilities by softmax.
+     */
+    private double[] detectExact(int[] rows, int size) {
+        double[] score = logPrior();
+        addLog(score, rows, size);
+        return softmax(score);
+    }
+
+    /**
+     * Add the log-probabilities of n-grams to the scores. The rows are sorted, so each distinct n-gram
+     * is added once, weighted by its count.
+     */
+    private void addLog(double[] score, int[] rows, int size) {
+        Arrays.sort(rows, 0, size);
+        double weight = alpha / baseFreq;
+        for (int start = 0, end; start < size; start = end) {
+            end = start + 1;
+            while (end < size && rows[end] == rows[start]) {
+                end++;
+            }
+            model.addLog(score, rows[start], weight, end - start);
+        }
+    }
+
+    private double[] logPrior() {
+        double[] score = new double[model.size()];
+        initProbability(score);
+        for (int i = 0; i < score.length; i++) {
+            score[i] = Math.log(score[i]);
+        }
+        return score;
+    }
+
+    private static double[] softmax(double[] score) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double s : score) {
+            max = Math.max(max, s);
+        }
+        double sum = 0d;
+        for (int i = 0; i < score.length; i++) {
+            score[i] = Math.exp(score[i] - max);
+            sum += score[i];
+        }
+        for (int i = 0; i < score.length; i++) {
+            score[i] /= sum;
+        }
+        return score;
+    }
+
+    private void initProbability(double[] prob) {
+        if (priorMap != null) {
+            System.arraycopy(priorMap, 0, prob, 0, prob.length);
+        } else {
+            for (int i = 0; i < prob.length; ++i) {
+                prob[i] = 1.0 / model.size();
+            }
+        }
+    }
+
+    private void updateLangProb(double[] prob, int row, double alpha) {
+        double weight = alpha / baseFreq;
+        model.update(prob, row, weight);
+    }
+
     private double normalizeProb(double[] prob) {
         if (prob.length == 0) {
             return 0d;
@@ -273,7 +838,7 @@ public class LangdetectService {
             if (p > probThreshold) {
                 for (int i = 0; i <= list.size(); ++i) {
                     if (i == list.size() || list.get(i).getProbability() < p) {
-                        String code = langlist.get(j);
+                        String code = model.getLanguages().get(j);
                         if (langmap != null && langmap.containsKey(code)) {
                             code = langmap.get(code);
                         }
@@ -285,4 +850,101 @@ public class LangdetectService {
         }
         return list;
     }
+
+    /**
+     * The key of a cached result, a 128-bit hash of the n-gram rows of a text and of its candidate languages.
+     * The profile and the detection parameters are fixed for each service, and so for each cache.
+     */
+    private static final class CacheKey {
+
+        private final long h1;
+
+        private final long h2;
+
+        CacheKey(Scratch scratch, int[] rows, int size, int[] langs) {
+            int length = 4 * size + (langs != null ? 4 + 4 * langs.length : 0);
+            byte[] bytes = scratch.bytes(length);
+            int pos = 0;
+            for (int i = 0; i < size; i++) {
+                pos = putInt(bytes, pos, rows[i]);
+            }
+            if (langs != null) {
+                // rows are never negative, so the candidate languages can not be mistaken for rows
+                pos = putInt(bytes, pos, -1);
+                for (int lang : langs) {
+                    pos = putInt(bytes, pos, lang);
+                }
+            }
+            MurmurHash3.Hash128 hash = MurmurHash3.hash128(bytes, 0, length, 0L, new MurmurHash3.Hash128());
+            this.h1 = hash.h1;
+            this.h2 = hash.h2;
+        }
+
+        private static int putInt(byte[] bytes, int pos, int value) {
+            bytes[pos] = (byte) (value >>> 24);
+            bytes[pos + 1] = (byte) (value >>> 16);
+            bytes[pos + 2] = (byte) (value >>> 8);
+            bytes[pos + 3] = (byte) value;
+            return pos + 4;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return h1 == other.h1 && h2 == other.h2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) h1;
+        }
+    }
+
+    /**
+     * The mutable state of the detections on one thread.
+     */
+    private static class Scratch {
+
+        private final NGram ngram = new NGram();
+
+        private final Random random = new Random();
+
+        private final BitSet seen = new BitSet();
+
+        private int[] rows = new int[1024];
+
+        private double[] prob = new double[0];
+
+        private byte[] bytes = new byte[0];
+
+        int[] rows(int length) {
+            if (length > MAX_SCRATCH_ROWS) {
+                return new int[length];
+            }
+            if (rows.length < length) {
+                rows = new int[Math.max(length, Math.min(rows.length * 2, MAX_SCRATCH_ROWS))];
+            }
+            return rows;
+        }
+
+        byte[] bytes(int length) {
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            return bytes;
+        }
+
+        double[] prob(int length) {
+            if (prob.length != length) {
+                prob = new double[length];
+            }
+            return prob;
+        }
+    }
 }
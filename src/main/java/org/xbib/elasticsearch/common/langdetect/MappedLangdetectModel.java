@@ -0,0 +1,238 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A language model in a memory-mapped file.
+ *
+ * The file holds the open-addressing table of packed n-gram keys (see {@link NGramTable}) and a dense
+ * row-major probability matrix. Both are read directly from the mapped pages, outside of the Java heap, so
+ * the garbage collector never scans them. A model is shared by all indices and pipelines of a node through
+ * the {@link LangdetectModelRegistry}, each node maps its own file, and files are not shared between nodes.
+ * Files are named after the profile and language list. A file that is left over, e.g. after a crash, is
+ * reused. The file of a model is deleted when the model is disposed, the pages stay mapped until the model
+ * is garbage collected.
+ */
+final class MappedLangdetectModel extends LangdetectModel {
+
+    private static final Logger logger = LogManager.getLogger(MappedLangdetectModel.class.getName());
+
+    private static final int MAGIC = 0x4c444d32;
+
+    private final LongBuffer keys;
+
+    private final IntBuffer rows;
+
+    private final DoubleBuffer matrix;
+
+    private final int mask;
+
+    private final int shift;
+
+    private final int langsize;
+
+    private final Path path;
+
+    private MappedLangdetectModel(Path path, String profile, List<String> langlist, LongBuffer keys,
+                                  IntBuffer rows, DoubleBuffer matrix) {
+        super(profile, langlist);
+        this.path = path;
+        this.keys = keys;
+        this.rows = rows;
+        this.matrix = matrix;
+        this.mask = keys.capacity() - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(keys.capacity());
+        this.langsize = langlist.size();
+    }
+
+    /**
+     * Map the model for a profile and a list of languages, writing the model file first if it does not exist.
+     *
+     * @param profile the profile name, or null for the default profile
+     * @param langKeys the language codes, or an empty array for all languages of the profile
+     * @param directory the directory of the model files
+     * @return the model
+     * @throws IOException if the model can not be loaded or mapped
+     */
+    static LangdetectModel load(String profile, String[] langKeys, Path directory) throws IOException {
+        String key = (profile == null ? "" : profile) + "/" + String.join(",", langKeys);
+        String name = profile == null || profile.isEmpty() ? "default" : profile;
+        Path path = directory.resolve("langdetect-" + name + "-" + Integer.toHexString(key.hashCode()) + ".model");
+        if (Files.exists(path)) {
+            try {
+                MappedLangdetectModel model = map(path, profile, key);
+                if (model != null) {
+                    logger.debug("mapped language model file {}", path);
+                    return model;
+                }
+            } catch (IOException e) {
+                logger.warn("unable to map language model file " + path + ", rewriting", e);
+            }
+        }
+        Files.createDirectories(directory);
+        write(path, key, LangdetectModel.loadHeap(profile, langKeys));
+        MappedLangdetectModel model = map(path, profile, key);
+        if (model == null) {
+            throw new IOException("invalid language model file " + path);
+        }
+        logger.debug("wrote and mapped language model file {}", path);
+        return model;
+    }
+
+    private static void write(Path path, String key, HeapLangdetectModel model) throws IOException {
+        NGramTable table = model.table();
+        double[] matrix = model.matrix();
+        List<byte[]> header = new ArrayList<>();
+        header.add(key.getBytes(StandardCharsets.UTF_8));
+        for (String lang : model.getLanguages()) {
+            header.add(lang.getBytes(StandardCharsets.UTF_8));
+        }
+        int headerSize = 16;
+        for (byte[] b : header) {
+            headerSize += 4 + b.length;
+        }
+        headerSize = (headerSize + 7) & ~7;
+        int langsize = model.size();
+        int rows = table.size();
+        int capacity = table.capacity();
+        long size = headerSize + 12L * capacity + 8L * rows * langsize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("language model too large for mapping: " + size + " bytes");
+        }
+        // write to a temporary file and move it, so concurrent readers never see a partial file
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.nativeOrder());
+                buffer.putInt(MAGIC);
+                buffer.putInt(langsize);
+                buffer.putInt(rows);
+                buffer.putInt(capacity);
+                for (byte[] b : header) {
+                    buffer.putInt(b.length);
+                    buffer.put(b);
+                }
+                buffer.position(headerSize);
+                for (int i = 0; i < capacity; i++) {
+                    buffer.putLong(table.keyAt(i));
+                }
+                for (int i = 0; i < capacity; i++) {
+                    buffer.putInt(table.rowAt(i));
+                }
+                for (int i = 0; i < rows * langsize; i++) {
+                    buffer.putDouble(matrix[i]);
+                }
+                buffer.force();
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static MappedLangdetectModel map(Path path, String profile, String key) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        int langsize = buffer.getInt();
+        int rows = buffer.getInt();
+        int capacity = buffer.getInt();
+        if (Integer.bitCount(capacity) != 1 || !key.equals(readString(buffer))) {
+            return null;
+        }
+        List<String> langlist = new ArrayList<>(langsize);
+        for (int i = 0; i < langsize; i++) {
+            langlist.add(readString(buffer));
+        }
+        int headerSize = (buffer.position() + 7) & ~7;
+        if (buffer.capacity() != headerSize + 12L * capacity + 8L * rows * langsize) {
+            return null;
+        }
+        buffer.position(headerSize);
+        ByteBuffer slice = buffer.slice().order(ByteOrder.nativeOrder());
+        LongBuffer keys = slice.asLongBuffer();
+        keys.limit(capacity);
+        keys = keys.slice();
+        slice.position(8 * capacity);
+        IntBuffer slots = slice.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+        slots.limit(capacity);
+        slots = slots.slice();
+        slice.position(12 * capacity);
+        DoubleBuffer matrix = slice.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        return new MappedLangdetectModel(path, profile, langlist, keys, slots, matrix);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] b = new byte[buffer.getInt()];
+        buffer.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    void dispose() {
+        try {
+            Files.deleteIfExists(path);
+            logger.debug("deleted language model file {}", path);
+        } catch (IOException e) {
+            // e.g. a mapped file can not be deleted on Windows
+            logger.warn("unable to delete language model file " + path, e);
+        }
+    }
+
+    @Override
+    public int row(long gram) {
+        for (int i = NGramTable.slot(gram, shift); ; i = (i + 1) & mask) {
+            long k = keys.get(i);
+            if (k == gram) {
+                return rows.get(i);
+            }
+            if (k == 0L) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public double get(int row, int index) {
+        return matrix.get(row * langsize + index);
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight) {
+        int base = row * langsize;
+        for (int i = 0; i < prob.length; ++i) {
+            prob[i] *= weight + matrix.get(base + i);
+        }
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight, int[] langs) {
+        int base = row * langsize;
+        for (int i = 0; i < langs.length; ++i) {
+            prob[i] *= weight + matrix.get(base + langs[i]);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package org.xbib.elasticsearch.common.langdetect;
 
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
 import java.lang.Character.UnicodeBlock;
 import java.util.HashMap;
 import java.util.Map;
@@ -11,8 +16,6 @@ import java.util.regex.Pattern;
  */
 public class NGram {
 
-    private static final Map<Character, Character> cjk_map = new HashMap<>();
-
     public static final int N_GRAM = 3;
 
     private static final String[] CJK_CLASS = {
@@ -145,24 +148,66 @@ public class NGram {
     };
     private static final String LATIN1_EXCLUDED = "\u00A0\u00AB\u00B0\u00BB";
 
+    /**
+     * The normalized form of every char, computed once by {@link #normalize(char, Map)}.
+     */
+    private static final char[] NORMALIZED = new char[Character.MAX_VALUE + 1];
+
+    /**
+     * One bit per char, set for word chars, see {@link #isWord(int)}.
+     */
+    private static final long[] WORD = new long[(Character.MAX_VALUE + 1) >> 6];
+
     static {
+        Map<Character, Character> cjkMap = new HashMap<>();
         for (String cjk_list : CJK_CLASS) {
             char representative = cjk_list.charAt(0);
             for (int i = 0; i < cjk_list.length(); ++i) {
-                cjk_map.put(cjk_list.charAt(i), representative);
+                cjkMap.put(cjk_list.charAt(i), representative);
+            }
+        }
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            NORMALIZED[i] = normalize((char) i, cjkMap);
+            if (isWord(i)) {
+                WORD[i >> 6] |= 1L << i;
             }
         }
     }
 
-    private StringBuilder grams;
+    private static final long CHARS_MASK = (1L << 16 * N_GRAM) - 1L;
+
+    /**
+     * The last characters, 16 bits each, the most recent in the lowest bits. A new word starts with a space.
+     */
+    private long chars;
+
+    private int length;
+
     private boolean capitalword;
 
+    /**
+     * The last decoded code point of UTF-8 input that is not added yet, or -1.
+     */
+    private int pending;
+
     public NGram() {
-        grams = new StringBuilder(" ");
+        reset();
+    }
+
+    /**
+     * Reset to the start of a text, so an instance can be reused.
+     */
+    public void reset() {
+        chars = ' ';
+        length = 1;
         capitalword = false;
     }
 
     public static char normalize(char ch) {
+        return NORMALIZED[ch];
+    }
+
+    private static char normalize(char ch, Map<Character, Character> cjkMap) {
         UnicodeBlock block = UnicodeBlock.of(ch);
         if (block == UnicodeBlock.BASIC_LATIN) {
             if (ch < 'A' || (ch < 'a' && ch > 'Z') || ch > 'z') {
@@ -199,8 +244,8 @@ public class NGram {
         } else if (block == UnicodeBlock.BOPOMOFO || block == UnicodeBlock.BOPOMOFO_EXTENDED) {
             ch = '\u3105';
         } else if (block == UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
-            if (cjk_map.containsKey(ch)) {
-                ch = cjk_map.get(ch);
+            if (cjkMap.containsKey(ch)) {
+                ch = cjkMap.get(ch);
             }
         } else if (block == UnicodeBlock.HANGUL_SYLLABLES) {
             ch = '\uac00';
@@ -208,19 +253,47 @@ public class NGram {
         return ch;
     }
 
+    /**
+     * Check if a code point is a word character in the sense of the regular expression {@code \p{IsWord}}:
+     * an alphabetic character, a mark, a decimal digit, a connector punctuation or a join control.
+     *
+     * @param codePoint the code point
+     * @return true if the code point is a word character
+     */
+    public static boolean isWord(int codePoint) {
+        if (Character.isAlphabetic(codePoint) || codePoint == '\u200c' || codePoint == '\u200d') {
+            return true;
+        }
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.CONNECTOR_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     public void addChar(char ch) {
-        ch = normalize(ch);
-        char lastchar = grams.charAt(grams.length() - 1);
+        append(normalize(ch));
+    }
+
+    private void append(char ch) {
+        char lastchar = (char) chars;
         if (lastchar == ' ') {
-            grams = new StringBuilder(" ");
+            chars = ' ';
+            length = 1;
             capitalword = false;
             if (ch == ' ') {
                 return;
             }
-        } else if (grams.length() >= N_GRAM) {
-            grams.deleteCharAt(0);
+        } else if (length >= N_GRAM) {
+            length--;
         }
-        grams.append(ch);
+        chars = ((chars << 16) | ch) & CHARS_MASK;
+        length++;
         if (Character.isUpperCase(ch)) {
             if (Character.isUpperCase(lastchar)) {
                 capitalword = true;
@@ -231,22 +304,230 @@ public class NGram {
     }
 
     public String get(int n) {
-        if (capitalword) {
+        long gram = pack(n);
+        if (gram == 0L) {
             return null;
         }
-        int len = grams.length();
-        if (n < 1 || n > 3 || len < n) {
-            return null;
+        char[] ch = new char[n];
+        for (int i = 0; i < n; i++) {
+            ch[i] = (char) (gram >>> 16 * (n - 1 - i));
         }
-        if (n == 1) {
-            char ch = grams.charAt(len - 1);
-            if (ch == ' ') {
-                return null;
+        return new String(ch);
+    }
+
+    /**
+     * Return the last n-gram of the given length in packed form, see {@link #pack(CharSequence)}.
+     *
+     * @param n the n-gram length
+     * @return the packed n-gram, or 0 if there is no such n-gram
+     */
+    public long pack(int n) {
+        if (capitalword || n < 1 || n > N_GRAM || length < n) {
+            return 0L;
+        }
+        if (n == 1 && (char) chars == ' ') {
+            return 0L;
+        }
+        return ((long) n << 48) | (chars & ((1L << 16 * n) - 1L));
+    }
+
+    /**
+     * Extract the rows of all n-grams of a text that are known to a model. The n-grams are appended in the
+     * order of their last character and ascending length. Nothing is allocated.
+     *
+     * The text is cleaned in the same pass: Vietnamese letters followed by a combining diacritic are folded
+     * as by {@link #normalizeVietnamese(String)}, each non-word code point (see {@link #isWord(int)}) becomes
+     * a single space, and all chars are normalized by {@link #normalize(char)}. The result is the same as
+     * replacing {@code [\P{IsWord}]} by a space with a regular expression before adding the chars.
+     *
+     * @param text the text
+     * @param model the model
+     * @param rows the row buffer, at least {@link #N_GRAM} times the text length
+     * @return the number of rows
+     */
+    public int extract(CharSequence text, LangdetectModel model, int[] rows) {
+        return extract(text, model, rows, null);
+    }
+
+    /**
+     * Extract all n-grams of a text in packed form, see {@link #extract(CharSequence, LangdetectModel, int[])}.
+     *
+     * @param text the text
+     * @param grams the n-gram buffer, at least {@link #N_GRAM} times the text length
+     * @return the number of n-grams
+     */
+    public int extract(CharSequence text, long[] grams) {
+        return extract(text, null, null, grams);
+    }
+
+    private int extract(CharSequence text, LangdetectModel model, int[] rows, long[] grams) {
+        reset();
+        int size = 0;
+        int length = text.length();
+        for (int i = 0; i < length; ++i) {
+            char ch = text.charAt(i);
+            if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                // like the former regular expression, keep only the high surrogate of a supplementary word
+                // code point and replace any other supplementary code point by a single space
+                if (isWord(Character.toCodePoint(ch, text.charAt(++i)))) {
+                    append(NORMALIZED[ch]);
+                    size = emit(model, rows, grams, size);
+                }
+                ch = ' ';
+            } else {
+                if (i + 1 < length) {
+                    char next = text.charAt(i + 1);
+                    if (next >= '\u0300' && next <= '\u0323') {
+                        int diacritic = VI_DIACRITICS.indexOf(next);
+                        int charIndex = diacritic >= 0 ? VI_CHARS.indexOf(ch) : -1;
+                        if (charIndex >= 0) {
+                            ch = VI_NORMALIZED_CHARS[diacritic].charAt(charIndex);
+                            ++i;
+                        }
+                    }
+                }
+                ch = (WORD[ch >> 6] & (1L << ch)) != 0 ? NORMALIZED[ch] : ' ';
             }
-            return Character.toString(ch);
+            append(ch);
+            size = emit(model, rows, grams, size);
+        }
+        return size;
+    }
+
+    /**
+     * Extract the rows of all n-grams of UTF-8 encoded text that are known to a model, see
+     * {@link #extract(CharSequence, LangdetectModel, int[])}. The bytes are decoded on the fly, page by page,
+     * without a copy of the text. Malformed bytes are treated like the replacement character of
+     * {@link String#String(byte[], java.nio.charset.Charset)}, so the rows are the same as for the decoded text.
+     *
+     * @param bytes the UTF-8 encoded text
+     * @param model the model
+     * @param rows the row buffer, at least {@link #N_GRAM} times the number of bytes
+     * @return the number of rows
+     * @throws IOException if the bytes can not be read
+     */
+    public int extract(BytesReference bytes, LangdetectModel model, int[] rows) throws IOException {
+        reset();
+        pending = -1;
+        int size = 0;
+        int codePoint = 0;
+        int remaining = 0;
+        int min = 0;
+        BytesRefIterator iterator = bytes.iterator();
+        for (BytesRef ref = iterator.next(); ref != null; ref = iterator.next()) {
+            byte[] b = ref.bytes;
+            for (int i = ref.offset, end = ref.offset + ref.length; i < end; i++) {
+                int v = b[i] & 0xff;
+                if (remaining > 0) {
+                    if ((v & 0xc0) == 0x80) {
+                        codePoint = codePoint << 6 | v & 0x3f;
+                        if (--remaining == 0) {
+                            boolean valid = codePoint >= min && codePoint <= Character.MAX_CODE_POINT &&
+                                    (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE);
+                            size = decoded(valid ? codePoint : REPLACEMENT, model, rows, size);
+                        }
+                        continue;
+                    }
+                    // a truncated sequence, the byte starts the next one
+                    remaining = 0;
+                    size = decoded(REPLACEMENT, model, rows, size);
+                }
+                if (v < 0x80) {
+                    size = decoded(v, model, rows, size);
+                } else if (v >= 0xc2 && v < 0xe0) {
+                    codePoint = v & 0x1f;
+                    remaining = 1;
+                    min = 0x80;
+                } else if (v >= 0xe0 && v < 0xf0) {
+                    codePoint = v & 0x0f;
+                    remaining = 2;
+                    min = 0x800;
+                } else if (v >= 0xf0 && v < 0xf5) {
+                    codePoint = v & 0x07;
+                    remaining = 3;
+                    min = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+                } else {
+                    size = decoded(REPLACEMENT, model, rows, size);
+                }
+            }
+        }
+        if (remaining > 0) {
+            size = decoded(REPLACEMENT, model, rows, size);
+        }
+        if (pending >= 0) {
+            size = add(pending, model, rows, size);
+        }
+        return size;
+    }
+
+    /**
+     * Add the pending code point, with the decoded code point as lookahead for Vietnamese diacritics.
+     */
+    private int decoded(int codePoint, LangdetectModel model, int[] rows, int size) {
+        if (pending >= 0) {
+            if (codePoint >= '\u0300' && codePoint <= '\u0323' && pending < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                int diacritic = VI_DIACRITICS.indexOf(codePoint);
+                int charIndex = diacritic >= 0 ? VI_CHARS.indexOf(pending) : -1;
+                if (charIndex >= 0) {
+                    pending = -1;
+                    return add(VI_NORMALIZED_CHARS[diacritic].charAt(charIndex), model, rows, size);
+                }
+            }
+            size = add(pending, model, rows, size);
+        }
+        pending = codePoint;
+        return size;
+    }
+
+    /**
+     * Add a code point in the same way as the chars of a {@link CharSequence} are added.
+     */
+    private int add(int codePoint, LangdetectModel model, int[] rows, int size) {
+        char ch;
+        if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            if (isWord(codePoint)) {
+                append(NORMALIZED[Character.highSurrogate(codePoint)]);
+                size = emit(model, rows, null, size);
+            }
+            ch = ' ';
         } else {
-            return grams.substring(len - n, len);
+            ch = (char) codePoint;
+            ch = (WORD[ch >> 6] & (1L << ch)) != 0 ? NORMALIZED[ch] : ' ';
         }
+        append(ch);
+        return emit(model, rows, null, size);
+    }
+
+    private int emit(LangdetectModel model, int[] rows, long[] grams, int size) {
+        for (int n = 1; n <= N_GRAM; ++n) {
+            long gram = pack(n);
+            if (gram != 0L) {
+                if (model == null) {
+                    grams[size++] = gram;
+                } else {
+                    int row = model.row(gram);
+                    if (row >= 0) {
+                        rows[size++] = row;
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Pack an n-gram of up to {@link #N_GRAM} characters into a long. The characters take 16 bits each
+     * in the lower 48 bits, the n-gram length is stored above them.
+     *
+     * @param gram the n-gram
+     * @return the packed n-gram
+     */
+    public static long pack(CharSequence gram) {
+        long key = 0L;
+        for (int i = 0; i < gram.length(); i++) {
+            key = (key << 16) | gram.charAt(i);
+        }
+        return ((long) gram.length() << 48) | key;
     }
 
     private static final String[] VI_NORMALIZED_CHARS = {
@@ -257,6 +538,8 @@ public class NGram {
         "\u1EA0\u1EB8\u1ECA\u1ECC\u1EE4\u1EF4\u1EA1\u1EB9\u1ECB\u1ECD\u1EE5\u1EF5\u1EAC\u1EC6\u1ED8\u1EAD\u1EC7\u1ED9\u1EB6\u1EB7\u1EE2\u1EE3\u1EF0\u1EF1"
     };
     private static final String VI_CHARS = "AEIOUYaeiouy\u00c2\u00ca\u00d4\u00e2\u00ea\u00f4\u0102\u0103\u01a0\u01a1\u01af\u01b0";
+    private static final int REPLACEMENT = 0xfffd;
+
     private static final String VI_DIACRITICS = "\u0300\u0301\u0303\u0309\u0323";
     private static final Pattern VI_CHARS_WITH_DIACRITIC_PATTERN = Pattern.compile("([" + VI_CHARS + "])([" + VI_DIACRITICS + "])");
 
@@ -0,0 +1,112 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+/**
+ * An open-addressing hash table from packed n-grams (see {@link NGram#pack(CharSequence)}) to row numbers.
+ *
+ * Rows are numbered in insertion order, so they can index a flat probability matrix. Packed n-grams
+ * always carry their length, so the key 0 marks a free slot.
+ */
+class NGramTable {
+
+    private long[] keys;
+
+    private int[] rows;
+
+    private int shift;
+
+    private int size;
+
+    NGramTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        this.rows = new int[capacity];
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * Return the first slot to probe for a key in a table of the given capacity.
+     *
+     * @param key the packed n-gram
+     * @param shift 64 minus the binary logarithm of the capacity
+     * @return the slot
+     */
+    static int slot(long key, int shift) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Look up a packed n-gram.
+     *
+     * @param key the packed n-gram
+     * @return the row, or -1 if the n-gram is not in the table
+     */
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key, shift); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return rows[i];
+            }
+            if (k == 0L) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Add a packed n-gram.
+     *
+     * @param key the packed n-gram
+     * @return the row of the n-gram, a new row if the n-gram was not in the table
+     */
+    int put(long key) {
+        int mask = keys.length - 1;
+        int i = slot(key, shift);
+        for (; keys[i] != 0L; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return rows[i];
+            }
+        }
+        keys[i] = key;
+        rows[i] = size;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    int rowAt(int slot) {
+        return rows[slot];
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldRows = rows;
+        keys = new long[oldKeys.length * 2];
+        rows = new int[oldRows.length * 2];
+        shift--;
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0L) {
+                int i = slot(oldKeys[j], shift);
+                while (keys[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                rows[i] = oldRows[j];
+            }
+        }
+    }
+}
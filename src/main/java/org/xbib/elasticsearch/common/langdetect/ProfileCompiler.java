@@ -0,0 +1,131 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import org.elasticsearch.common.io.stream.OutputStreamStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiles JSON language profiles into a single binary file per profile directory.
+ *
+ * The file holds the n-gram counts of all languages of a directory: a header with the language names
+ * and their n-gram totals, followed by the n-grams in sorted order, each with the list of languages
+ * and frequencies in which it occurs. Numbers are written as variable-length integers, so the file
+ * can be read in one sequential pass, see {@link LangdetectModel#load(String, String[])}.
+ */
+public class ProfileCompiler {
+
+    public static final String COMPILED_PROFILES = "profiles.bin";
+
+    static final String MAGIC = "langdetect-profiles";
+
+    static final int VERSION = 1;
+
+    private ProfileCompiler() {
+    }
+
+    /**
+     * Compile all profile directories below a source directory.
+     *
+     * @param args the source directory and the target directory
+     * @throws IOException if compilation fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("usage: ProfileCompiler <source directory> <target directory>");
+        }
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+        compileDirectory(source, target);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(source, Files::isDirectory)) {
+            for (Path dir : stream) {
+                compileDirectory(dir, target.resolve(dir.getFileName().toString()));
+            }
+        }
+    }
+
+    private static void compileDirectory(Path source, Path target) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+            for (Path path : stream) {
+                // language profiles are named by their language code, without extension
+                if (Files.isRegularFile(path) && !path.getFileName().toString().contains(".")) {
+                    paths.add(path);
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+        Collections.sort(paths);
+        List<LangProfile> profiles = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            try (InputStream in = Files.newInputStream(path)) {
+                profiles.add(new LangProfile(in));
+            }
+        }
+        Files.createDirectories(target);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.resolve(COMPILED_PROFILES)))) {
+            write(profiles, out);
+        }
+    }
+
+    /**
+     * Write language profiles in compiled form.
+     *
+     * @param profiles the language profiles
+     * @param out the output stream
+     * @throws IOException if writing fails
+     */
+    public static void write(List<LangProfile> profiles, OutputStream out) throws IOException {
+        StreamOutput output = new OutputStreamStreamOutput(out);
+        output.writeString(MAGIC);
+        output.writeVInt(VERSION);
+        output.writeVInt(profiles.size());
+        Map<String, List<long[]>> grams = new TreeMap<>();
+        for (int i = 0; i < profiles.size(); i++) {
+            LangProfile profile = profiles.get(i);
+            output.writeString(profile.getName());
+            for (int n = 0; n < NGram.N_GRAM; n++) {
+                output.writeVLong(profile.getNWords().get(n));
+            }
+            for (Map.Entry<String, Long> entry : profile.getFreq().entrySet()) {
+                grams.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(new long[] { i, entry.getValue() });
+            }
+        }
+        output.writeVInt(grams.size());
+        for (Map.Entry<String, List<long[]>> entry : grams.entrySet()) {
+            output.writeString(entry.getKey());
+            output.writeVInt(entry.getValue().size());
+            for (long[] freq : entry.getValue()) {
+                output.writeVInt((int) freq[0]);
+                output.writeVLong(freq[1]);
+            }
+        }
+        output.flush();
+    }
+
+    static void readHeader(StreamInput input) throws IOException {
+        String magic = input.readString();
+        if (!MAGIC.equals(magic)) {
+            throw new IOException("not a compiled language profile file");
+        }
+        int version = input.readVInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported compiled language profile version " + version);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+/**
+ * A language model with all n-gram probabilities on the heap, quantized to one byte each.
+ *
+ * The logarithms of the non-zero probabilities of each language are mapped linearly to the codes 1 to
+ * 255, between the smallest and the largest logarithm of the language, and the code 0 stands for a
+ * probability of 0. The matrix takes an eighth of the memory of a {@link HeapLangdetectModel}. The
+ * probabilities are decoded by a table of 256 entries per language, and in exact mode, the logarithms
+ * of the smoothed probabilities are looked up in a table for the smoothing weight, so no logarithm is
+ * computed while scoring. The model may be shared by services with different smoothing weights, so the
+ * tables of the last few weights are kept.
+ */
+class QuantizedLangdetectModel extends LangdetectModel {
+
+    private static final int CODES = 256;
+
+    /**
+     * The maximum number of kept tables of logarithms, one for each smoothing weight.
+     */
+    private static final int MAX_LOG_TABLES = 16;
+
+    private final NGramTable table;
+
+    private final byte[] matrix;
+
+    private final int langsize;
+
+    /**
+     * The decoded probabilities, 256 per language.
+     */
+    private final double[] decode;
+
+    /**
+     * The tables of the logarithms of the smoothed probabilities, replaced in turn. Guarded by itself.
+     */
+    private final LogTable[] logTables = new LogTable[MAX_LOG_TABLES];
+
+    /**
+     * The index in {@link #logTables} of the next table to replace.
+     */
+    private int nextLogTable;
+
+    /**
+     * The table for the last weight, which is found without taking the lock.
+     */
+    private volatile LogTable lastLogTable;
+
+    /**
+     * Create a quantized copy of a heap model.
+     *
+     * @param model the heap model
+     */
+    QuantizedLangdetectModel(HeapLangdetectModel model) {
+        super(model.getProfile(), model.langlist);
+        this.table = model.table();
+        this.langsize = model.size();
+        int rows = table.size();
+        double[] source = model.matrix();
+        this.matrix = new byte[rows * langsize];
+        this.decode = new double[langsize * CODES];
+        for (int lang = 0; lang < langsize; lang++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int row = 0; row < rows; row++) {
+                double p = source[row * langsize + lang];
+                if (p > 0d) {
+                    double log = Math.log(p);
+                    min = Math.min(min, log);
+                    max = Math.max(max, log);
+                }
+            }
+            double step = max > min ? (max - min) / (CODES - 2) : 0d;
+            for (int code = 1; code < CODES; code++) {
+                decode[lang * CODES + code] = Math.exp(min + (code - 1) * step);
+            }
+            for (int row = 0; row < rows; row++) {
+                double p = source[row * langsize + lang];
+                if (p > 0d) {
+                    int code = step > 0d ? 1 + (int) Math.round((Math.log(p) - min) / step) : 1;
+                    matrix[row * langsize + lang] = (byte) code;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int row(long gram) {
+        return table.get(gram);
+    }
+
+    @Override
+    public double get(int row, int index) {
+        return decode[index * CODES + (matrix[row * langsize + index] & 0xff)];
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight) {
+        int base = row * langsize;
+        for (int i = 0; i < prob.length; ++i) {
+            prob[i] *= weight + decode[i * CODES + (matrix[base + i] & 0xff)];
+        }
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight, int[] langs) {
+        int base = row * langsize;
+        for (int i = 0; i < langs.length; ++i) {
+            int lang = langs[i];
+            prob[i] *= weight + decode[lang * CODES + (matrix[base + lang] & 0xff)];
+        }
+    }
+
+    @Override
+    public void addLog(double[] score, int row, double weight, int count) {
+        double[] logs = logTable(weight);
+        int base = row * langsize;
+        for (int i = 0; i < score.length; ++i) {
+            score[i] += count * logs[i * CODES + (matrix[base + i] & 0xff)];
+        }
+    }
+
+    @Override
+    public void addLog(double[][] scores, int[] docs, int[] counts, int n, int row, double weight) {
+        double[] logs = logTable(weight);
+        int base = row * langsize;
+        for (int i = 0; i < langsize; ++i) {
+            double log = logs[i * CODES + (matrix[base + i] & 0xff)];
+            for (int k = 0; k < n; ++k) {
+                scores[docs[k]][i] += counts[k] * log;
+            }
+        }
+    }
+
+    @Override
+    public void addLog(double[] score, int row, double weight, int count, int[] langs) {
+        double[] logs = logTable(weight);
+        int base = row * langsize;
+        for (int i = 0; i < langs.length; ++i) {
+            int lang = langs[i];
+            score[i] += count * logs[lang * CODES + (matrix[base + lang] & 0xff)];
+        }
+    }
+
+    private double[] logTable(double weight) {
+        LogTable logTable = lastLogTable;
+        if (logTable != null && logTable.weight == weight) {
+            return logTable.logs;
+        }
+        synchronized (logTables) {
+            logTable = null;
+            for (LogTable t : logTables) {
+                if (t != null && t.weight == weight) {
+                    logTable = t;
+                    break;
+                }
+            }
+            if (logTable == null) {
+                double[] logs = new double[decode.length];
+                for (int i = 0; i < logs.length; i++) {
+                    logs[i] = Math.log(weight + decode[i]);
+                }
+                logTable = new LogTable(weight, logs);
+                logTables[nextLogTable] = logTable;
+                nextLogTable = (nextLogTable + 1) % MAX_LOG_TABLES;
+            }
+        }
+        lastLogTable = logTable;
+        return logTable.logs;
+    }
+
+    private static final class LogTable {
+
+        private final double weight;
+
+        private final double[] logs;
+
+        LogTable(double weight, double[] logs) {
+            this.weight = weight;
+            this.logs = logs;
+        }
+    }
+}
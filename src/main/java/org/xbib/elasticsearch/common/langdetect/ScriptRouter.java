@@ -0,0 +1,208 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Restricts the candidate languages of a text by the Unicode scripts of its letters.
+ *
+ * A histogram of the scripts of all letters is built in a single pass over the text. Each script that
+ * has a share of at least {@link #MIN_SHARE} of the letters admits the languages written in that script,
+ * e.g. Cyrillic admits bg, mk, ru and uk. Languages of the model that are not known to this router are
+ * always candidates, so custom profiles are never excluded.
+ */
+final class ScriptRouter {
+
+    /**
+     * The minimum share of the letters of a text a script must have to be taken into account, so a few
+     * foreign words or names do not widen the candidates.
+     */
+    private static final double MIN_SHARE = 0.05d;
+
+    private static final Character.UnicodeScript[] VALUES = Character.UnicodeScript.values();
+
+    private static final Map<String, Character.UnicodeScript[]> SCRIPTS = new HashMap<>();
+
+    static {
+        for (String lang : LangdetectModel.ALL_LANGUAGES.split(",")) {
+            SCRIPTS.put(lang, new Character.UnicodeScript[] {Character.UnicodeScript.LATIN});
+        }
+        put(Character.UnicodeScript.ARABIC, "ar", "fa", "ur");
+        put(Character.UnicodeScript.BENGALI, "bn");
+        put(Character.UnicodeScript.CYRILLIC, "bg", "mk", "ru", "uk");
+        put(Character.UnicodeScript.DEVANAGARI, "hi", "mr", "ne");
+        put(Character.UnicodeScript.GREEK, "el");
+        put(Character.UnicodeScript.GUJARATI, "gu");
+        put(Character.UnicodeScript.GURMUKHI, "pa");
+        put(Character.UnicodeScript.HEBREW, "he");
+        put(Character.UnicodeScript.KANNADA, "kn");
+        put(Character.UnicodeScript.MALAYALAM, "ml");
+        put(Character.UnicodeScript.SINHALA, "si");
+        put(Character.UnicodeScript.TAMIL, "ta");
+        put(Character.UnicodeScript.TELUGU, "te");
+        put(Character.UnicodeScript.THAI, "th");
+        SCRIPTS.put("ja", new Character.UnicodeScript[] {Character.UnicodeScript.HAN,
+                Character.UnicodeScript.HIRAGANA, Character.UnicodeScript.KATAKANA});
+        SCRIPTS.put("ko", new Character.UnicodeScript[] {Character.UnicodeScript.HANGUL});
+        SCRIPTS.put("zh-cn", new Character.UnicodeScript[] {Character.UnicodeScript.HAN});
+        SCRIPTS.put("zh-tw", new Character.UnicodeScript[] {Character.UnicodeScript.HAN});
+    }
+
+    private static void put(Character.UnicodeScript script, String... langs) {
+        for (String lang : langs) {
+            SCRIPTS.put(lang, new Character.UnicodeScript[] {script});
+        }
+    }
+
+    /**
+     * The language indexes by script.
+     */
+    private final Map<Character.UnicodeScript, int[]> languages = new EnumMap<>(Character.UnicodeScript.class);
+
+    /**
+     * The indexes of the languages without known scripts.
+     */
+    private final int[] unknown;
+
+    private final int size;
+
+    ScriptRouter(List<String> langlist) {
+        Map<Character.UnicodeScript, List<Integer>> map = new EnumMap<>(Character.UnicodeScript.class);
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < langlist.size(); i++) {
+            Character.UnicodeScript[] scripts = SCRIPTS.get(langlist.get(i));
+            if (scripts == null) {
+                list.add(i);
+            } else {
+                for (Character.UnicodeScript script : scripts) {
+                    map.computeIfAbsent(script, k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        for (Map.Entry<Character.UnicodeScript, List<Integer>> entry : map.entrySet()) {
+            languages.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        this.unknown = toArray(list);
+        this.size = langlist.size();
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Find the candidate languages of a text.
+     *
+     * @param text the text
+     * @return the sorted indexes of the candidate languages, or null if all languages are candidates
+     */
+    int[] route(CharSequence text) {
+        int[] histogram = new int[VALUES.length];
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isHighSurrogate(ch) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                count(histogram, Character.toCodePoint(ch, text.charAt(++i)));
+            } else {
+                count(histogram, ch);
+            }
+        }
+        return route(histogram);
+    }
+
+    /**
+     * Find the candidate languages of UTF-8 encoded text. Malformed sequences are skipped.
+     *
+     * @param utf8 the UTF-8 encoded text
+     * @return the sorted indexes of the candidate languages, or null if all languages are candidates
+     * @throws IOException if the bytes can not be read
+     */
+    int[] route(BytesReference utf8) throws IOException {
+        int[] histogram = new int[VALUES.length];
+        int codePoint = 0;
+        int remaining = 0;
+        BytesRefIterator iterator = utf8.iterator();
+        for (BytesRef ref = iterator.next(); ref != null; ref = iterator.next()) {
+            for (int i = ref.offset, end = ref.offset + ref.length; i < end; i++) {
+                int b = ref.bytes[i] & 0xff;
+                if (b < 0x80) {
+                    remaining = 0;
+                    count(histogram, b);
+                } else if (b < 0xc0) {
+                    if (remaining > 0) {
+                        codePoint = codePoint << 6 | (b & 0x3f);
+                        if (--remaining == 0 && Character.isValidCodePoint(codePoint)) {
+                            count(histogram, codePoint);
+                        }
+                    }
+                } else if (b < 0xe0) {
+                    codePoint = b & 0x1f;
+                    remaining = 1;
+                } else if (b < 0xf0) {
+                    codePoint = b & 0x0f;
+                    remaining = 2;
+                } else {
+                    codePoint = b & 0x07;
+                    remaining = 3;
+                }
+            }
+        }
+        return route(histogram);
+    }
+
+    private static void count(int[] histogram, int codePoint) {
+        if (codePoint < 0x80) {
+            if ((codePoint | 0x20) >= 'a' && (codePoint | 0x20) <= 'z') {
+                histogram[Character.UnicodeScript.LATIN.ordinal()]++;
+            }
+        } else if (Character.isLetter(codePoint)) {
+            histogram[Character.UnicodeScript.of(codePoint).ordinal()]++;
+        }
+    }
+
+    private int[] route(int[] histogram) {
+        int total = 0;
+        for (int count : histogram) {
+            total += count;
+        }
+        boolean[] candidates = new boolean[size];
+        boolean found = false;
+        for (int i = 0; i < histogram.length; i++) {
+            int[] langs = histogram[i] > 0 && histogram[i] >= MIN_SHARE * total ? languages.get(VALUES[i]) : null;
+            if (langs != null) {
+                for (int lang : langs) {
+                    candidates[lang] = true;
+                }
+                found = true;
+            }
+        }
+        if (!found) {
+            // no letters, or only letters of scripts without languages
+            return null;
+        }
+        for (int lang : unknown) {
+            candidates[lang] = true;
+        }
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (candidates[i]) {
+                result[n++] = i;
+            }
+        }
+        return n < size ? Arrays.copyOf(result, n) : null;
+    }
+}
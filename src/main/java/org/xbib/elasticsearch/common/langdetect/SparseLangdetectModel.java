@@ -0,0 +1,120 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import java.util.Arrays;
+
+/**
+ * A language model with only the non-zero n-gram probabilities on the heap.
+ *
+ * Most n-grams occur in a few languages only. Each row keeps the sorted indexes of the languages with a
+ * non-zero probability and their probabilities, in the style of a compressed sparse row matrix. A
+ * language without a probability has the smoothed probability {@code weight}, and because the scores are
+ * normalized, every language can as well be divided by {@code weight}. So an update multiplies only the
+ * languages of the row, by {@code 1 + p / weight}, and leaves all other languages unchanged. The results
+ * are the same as those of a {@link HeapLangdetectModel}, up to rounding.
+ */
+class SparseLangdetectModel extends LangdetectModel {
+
+    private final NGramTable table;
+
+    /**
+     * The start of each row in {@link #columns} and {@link #values}, and the end of the last row.
+     */
+    private final int[] offsets;
+
+    private final short[] columns;
+
+    private final double[] values;
+
+    /**
+     * Create a sparse copy of a heap model.
+     *
+     * @param model the heap model
+     */
+    SparseLangdetectModel(HeapLangdetectModel model) {
+        super(model.getProfile(), model.langlist);
+        int langsize = model.size();
+        if (langsize > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("too many languages for a sparse model: " + langsize);
+        }
+        this.table = model.table();
+        int rows = table.size();
+        double[] matrix = model.matrix();
+        int count = 0;
+        for (int i = 0; i < rows * langsize; i++) {
+            if (matrix[i] != 0d) {
+                count++;
+            }
+        }
+        this.offsets = new int[rows + 1];
+        this.columns = new short[count];
+        this.values = new double[count];
+        int k = 0;
+        for (int row = 0; row < rows; row++) {
+            offsets[row] = k;
+            for (int i = 0, base = row * langsize; i < langsize; i++) {
+                if (matrix[base + i] != 0d) {
+                    columns[k] = (short) i;
+                    values[k++] = matrix[base + i];
+                }
+            }
+        }
+        offsets[rows] = k;
+    }
+
+    @Override
+    public int row(long gram) {
+        return table.get(gram);
+    }
+
+    @Override
+    public double get(int row, int index) {
+        int i = Arrays.binarySearch(columns, offsets[row], offsets[row + 1], (short) index);
+        return i >= 0 ? values[i] : 0d;
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight) {
+        double scale = 1d / weight;
+        for (int i = offsets[row], end = offsets[row + 1]; i < end; ++i) {
+            prob[columns[i]] *= 1d + values[i] * scale;
+        }
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight, int[] langs) {
+        double scale = 1d / weight;
+        for (int i = offsets[row], end = offsets[row + 1]; i < end; ++i) {
+            int j = Arrays.binarySearch(langs, columns[i]);
+            if (j >= 0) {
+                prob[j] *= 1d + values[i] * scale;
+            }
+        }
+    }
+
+    @Override
+    public void addLog(double[] score, int row, double weight, int count) {
+        for (int i = offsets[row], end = offsets[row + 1]; i < end; ++i) {
+            score[columns[i]] += count * Math.log1p(values[i] / weight);
+        }
+    }
+
+    @Override
+    public void addLog(double[][] scores, int[] docs, int[] counts, int n, int row, double weight) {
+        for (int i = offsets[row], end = offsets[row + 1]; i < end; ++i) {
+            double log = Math.log1p(values[i] / weight);
+            for (int k = 0; k < n; ++k) {
+                scores[docs[k]][columns[i]] += counts[k] * log;
+            }
+        }
+    }
+
+    @Override
+    public void addLog(double[] score, int row, double weight, int count, int[] langs) {
+        for (int i = offsets[row], end = offsets[row + 1]; i < end; ++i) {
+            int j = Arrays.binarySearch(langs, columns[i]);
+            if (j >= 0) {
+                score[j] += count * Math.log1p(values[i] / weight);
+            }
+        }
+    }
+}
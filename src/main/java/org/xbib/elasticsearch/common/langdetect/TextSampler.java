@@ -0,0 +1,145 @@
+package org.xbib.elasticsearch.common.langdetect;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Selects a bounded slice of a text for language detection, so that the cost of detection does not grow
+ * with the size of the text.
+ *
+ * If windows are configured, a number of windows of a fixed size are taken at evenly spaced positions of
+ * the text, from the beginning to the end, and joined by spaces. Otherwise, the text is cut after the
+ * maximum length. The maximum length also caps the joined windows. Texts that are short enough are
+ * returned unchanged.
+ */
+public class TextSampler {
+
+    /**
+     * The maximum number of UTF-8 bytes of a char.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    private final int maxLength;
+
+    private final int windows;
+
+    private final int windowSize;
+
+    /**
+     * @param maxLength the maximum number of chars, or 0 for no limit
+     * @param windows the number of windows, or 0 for no sampling
+     * @param windowSize the number of chars of each window
+     */
+    public TextSampler(int maxLength, int windows, int windowSize) {
+        if (windows > 0 && windowSize <= 0) {
+            throw new IllegalArgumentException("window size must be positive: " + windowSize);
+        }
+        this.maxLength = Math.max(0, maxLength);
+        this.windows = Math.max(0, windows);
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return true if texts are not changed by this sampler
+     */
+    public boolean isNoop() {
+        return maxLength == 0 && windows == 0;
+    }
+
+    /**
+     * Sample a text.
+     *
+     * @param text the text
+     * @return the sample
+     */
+    public String sample(String text) {
+        if (text == null) {
+            return null;
+        }
+        int length = text.length();
+        if (windows > 0 && length > windows * (windowSize + 1)) {
+            StringBuilder sb = new StringBuilder(windows * (windowSize + 1));
+            for (int i = 0; i < windows; i++) {
+                int start = windows > 1 ? (int) ((long) i * (length - windowSize) / (windows - 1)) : 0;
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                append(sb, text, start, start + windowSize);
+            }
+            text = sb.toString();
+        }
+        return truncate(text);
+    }
+
+    /**
+     * Sample UTF-8 encoded text. Only the bytes of the sample are decoded.
+     *
+     * @param b the bytes
+     * @return the sample
+     */
+    public String sample(byte[] b) {
+        if (b == null) {
+            return null;
+        }
+        int length = b.length;
+        if (windows > 0 && length > windows * (windowSize + 1)) {
+            // the windows are placed as if each char had one byte, which is exact for ASCII text
+            int windowBytes = MAX_BYTES_PER_CHAR * (windowSize + 1);
+            StringBuilder sb = new StringBuilder(windows * (windowSize + 1));
+            for (int i = 0; i < windows; i++) {
+                int start = windows > 1 ? (int) ((long) i * (length - windowSize) / (windows - 1)) : 0;
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                String window = decode(b, start, Math.min(length, start + windowBytes));
+                append(sb, window, 0, Math.min(window.length(), windowSize));
+            }
+            return truncate(sb.toString());
+        }
+        if (maxLength > 0 && length > MAX_BYTES_PER_CHAR * (maxLength + 1)) {
+            // each char takes at most three bytes, so the prefix has at least maxLength chars
+            return truncate(decode(b, 0, MAX_BYTES_PER_CHAR * (maxLength + 1)));
+        }
+        return truncate(new String(b, StandardCharsets.UTF_8));
+    }
+
+    private String truncate(String text) {
+        if (maxLength == 0 || text.length() <= maxLength) {
+            return text;
+        }
+        int end = maxLength;
+        if (Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * Append a range of a text without splitting surrogate pairs at the bounds.
+     */
+    private static void append(StringBuilder sb, String text, int start, int end) {
+        if (start > 0 && Character.isLowSurrogate(text.charAt(start))) {
+            start++;
+        }
+        if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start < end) {
+            sb.append(text, start, end);
+        }
+    }
+
+    /**
+     * Decode a range of UTF-8 bytes, with the bounds moved to the nearest start of a char.
+     */
+    private static String decode(byte[] b, int start, int end) {
+        while (start < end && (b[start] & 0xc0) == 0x80) {
+            start++;
+        }
+        if (end < b.length) {
+            while (end > start && (b[end] & 0xc0) == 0x80) {
+                end--;
+            }
+        }
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -6,6 +6,10 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexableField;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.lucene.Lucene;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -18,12 +22,13 @@ import org.elasticsearch.index.mapper.Mapper;
 import org.elasticsearch.index.mapper.MapperParsingException;
 import org.elasticsearch.index.mapper.ParseContext;
 import org.elasticsearch.index.mapper.TextFieldMapper;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
 import org.xbib.elasticsearch.common.langdetect.LangdetectService;
 import org.xbib.elasticsearch.common.langdetect.Language;
 import org.xbib.elasticsearch.common.langdetect.LanguageDetectionException;
+import org.xbib.elasticsearch.common.langdetect.TextSampler;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -47,6 +52,8 @@ public class LangdetectMapper extends TextFieldMapper {
 
     private final int positionIncrementGap;
 
+    private final TextSampler textSampler;
+
     public LangdetectMapper(String simpleName,
                             MappedFieldType fieldType,
                             MappedFieldType defaultFieldType,
@@ -61,6 +68,9 @@ public class LangdetectMapper extends TextFieldMapper {
         this.langdetectService = langdetectService;
         this.languageTo = languageTo;
         this.positionIncrementGap = positionIncrementGap;
+        Settings settings = langdetectService.getSettings();
+        this.textSampler = new TextSampler(settings.getAsInt("max_length", 0),
+                settings.getAsInt("sample_windows", 0), settings.getAsInt("sample_window_size", 1000));
     }
 
     @Override
@@ -93,11 +103,20 @@ public class LangdetectMapper extends TextFieldMapper {
         } else {
             value = parser.textOrNull();
         }
+        BytesReference bytes = null;
+        boolean sampled = false;
         if (langdetectService.getSettings().getAsBoolean("binary", false)) {
             try {
                 byte[] b = parser.binaryValue();
                 if (b != null && b.length > 0) {
-                    value = new String(b, StandardCharsets.UTF_8);
+                    if (textSampler.isNoop()) {
+                        // detect on the bytes, without decoding them into a string
+                        bytes = new BytesArray(b);
+                    } else {
+                        // decode only the sample of large attachments
+                        value = textSampler.sample(b);
+                    }
+                    sampled = true;
                 }
             } catch (JsonParseException e) {
                 logger.trace(e.getMessage(), e);
@@ -105,8 +124,13 @@ public class LangdetectMapper extends TextFieldMapper {
                 logger.error(e.getMessage(), e);
             }
         }
+        if (!sampled) {
+            // the value is detected as text, e.g. if it is not base64 in binary mode
+            value = textSampler.sample(value);
+        }
         try {
-            List<Language> langs = langdetectService.detectAll(value);
+            List<Language> langs = bytes != null ?
+                    langdetectService.detectAll(bytes) : langdetectService.detectAll(value);
             for (Language lang : langs) {
                 Field field = new Field(fieldType().name(), lang.getLanguage(), fieldType());
                 fields.add(field);
@@ -199,9 +223,12 @@ public class LangdetectMapper extends TextFieldMapper {
 
         protected Settings.Builder settingsBuilder = Settings.builder();
 
-        public Builder(String name) {
+        private final LangdetectModelRegistry modelRegistry;
+
+        public Builder(String name, LangdetectModelRegistry modelRegistry) {
             super(name, Defaults.LANG_FIELD_TYPE, Defaults.LANG_FIELD_TYPE);
             this.builder = this;
+            this.modelRegistry = modelRegistry;
         }
 
         @Override
@@ -250,6 +277,16 @@ public class LangdetectMapper extends TextFieldMapper {
             return this;
         }
 
+        public Builder pruneThreshold(double pruneThreshold) {
+            settingsBuilder.put("prune_threshold", pruneThreshold);
+            return this;
+        }
+
+        public Builder adaptive(boolean adaptive) {
+            settingsBuilder.put("adaptive", adaptive);
+            return this;
+        }
+
         public Builder baseFreq(int baseFreq) {
             settingsBuilder.put("base_freq", baseFreq);
             return this;
@@ -287,6 +324,46 @@ public class LangdetectMapper extends TextFieldMapper {
             return this;
         }
 
+        public Builder model(String model) {
+            settingsBuilder.put("model", model);
+            return this;
+        }
+
+        public Builder mode(String mode) {
+            settingsBuilder.put("mode", mode);
+            return this;
+        }
+
+        public Builder maxLength(int maxLength) {
+            settingsBuilder.put("max_length", maxLength);
+            return this;
+        }
+
+        public Builder sampleWindows(int sampleWindows) {
+            settingsBuilder.put("sample_windows", sampleWindows);
+            return this;
+        }
+
+        public Builder sampleWindowSize(int sampleWindowSize) {
+            settingsBuilder.put("sample_window_size", sampleWindowSize);
+            return this;
+        }
+
+        public Builder scriptRouting(boolean scriptRouting) {
+            settingsBuilder.put("script_routing", scriptRouting);
+            return this;
+        }
+
+        public Builder cacheSize(int cacheSize) {
+            settingsBuilder.put("cache_size", cacheSize);
+            return this;
+        }
+
+        public Builder cacheMaxLength(int cacheMaxLength) {
+            settingsBuilder.put("cache_max_length", cacheMaxLength);
+            return this;
+        }
+
         public Builder languageTo(LanguageTo languageTo) {
             this.languageTo = languageTo;
             return this;
@@ -310,7 +387,21 @@ public class LangdetectMapper extends TextFieldMapper {
                 }
             }
             setupFieldType(context);
-            LangdetectService service = new LangdetectService(settingsBuilder.build());
+            Settings settings = settingsBuilder.build();
+            LangdetectService service;
+            if (settings.equals(Settings.EMPTY)) {
+                service = new LangdetectService(settings);
+            } else {
+                // the model is held until the index is removed from this node
+                String owner = context.indexSettings().get(IndexMetaData.SETTING_INDEX_UUID,
+                        IndexMetaData.INDEX_UUID_NA_VALUE);
+                try {
+                    service = new LangdetectService(settings, modelRegistry.acquire(owner, settings));
+                } catch (IOException e) {
+                    throw new ElasticsearchException(e.getMessage() + " profile=" + settings.get("profile"), e);
+                }
+                modelRegistry.registerCache(owner, fieldType().name(), service);
+            }
             return new LangdetectMapper(name,
                     fieldType(),
                     defaultFieldType,
@@ -325,9 +416,15 @@ public class LangdetectMapper extends TextFieldMapper {
 
     public static class TypeParser implements Mapper.TypeParser {
 
+        private final LangdetectModelRegistry modelRegistry;
+
+        public TypeParser(LangdetectModelRegistry modelRegistry) {
+            this.modelRegistry = modelRegistry;
+        }
+
         @Override
         public Mapper.Builder<?, ?> parse(String name, Map<String, Object> mapping, ParserContext parserContext) {
-            Builder builder = new Builder(name);
+            Builder builder = new Builder(name, modelRegistry);
             Iterator<Map.Entry<String, Object>> iterator = mapping.entrySet().iterator();
             while (iterator.hasNext()) {
                 Map.Entry<String, Object> entry = iterator.next();
@@ -391,6 +488,14 @@ public class LangdetectMapper extends TextFieldMapper {
                         builder.convThreshold(XContentMapValues.nodeDoubleValue(fieldNode));
                         iterator.remove();
                         break;
+                    case "prune_threshold":
+                        builder.pruneThreshold(XContentMapValues.nodeDoubleValue(fieldNode));
+                        iterator.remove();
+                        break;
+                    case "adaptive":
+                        builder.adaptive(XContentMapValues.nodeBooleanValue(fieldNode));
+                        iterator.remove();
+                        break;
                     case "base_freq":
                         builder.baseFreq(XContentMapValues.nodeIntegerValue(fieldNode));
                         iterator.remove();
@@ -420,6 +525,38 @@ public class LangdetectMapper extends TextFieldMapper {
                         builder.profile(XContentMapValues.nodeStringValue(fieldNode, null));
                         iterator.remove();
                         break;
+                    case "model":
+                        builder.model(XContentMapValues.nodeStringValue(fieldNode, null));
+                        iterator.remove();
+                        break;
+                    case "mode":
+                        builder.mode(XContentMapValues.nodeStringValue(fieldNode, null));
+                        iterator.remove();
+                        break;
+                    case "max_length":
+                        builder.maxLength(XContentMapValues.nodeIntegerValue(fieldNode));
+                        iterator.remove();
+                        break;
+                    case "sample_windows":
+                        builder.sampleWindows(XContentMapValues.nodeIntegerValue(fieldNode));
+                        iterator.remove();
+                        break;
+                    case "sample_window_size":
+                        builder.sampleWindowSize(XContentMapValues.nodeIntegerValue(fieldNode));
+                        iterator.remove();
+                        break;
+                    case "script_routing":
+                        builder.scriptRouting(XContentMapValues.nodeBooleanValue(fieldNode));
+                        iterator.remove();
+                        break;
+                    case "cache_size":
+                        builder.cacheSize(XContentMapValues.nodeIntegerValue(fieldNode));
+                        iterator.remove();
+                        break;
+                    case "cache_max_length":
+                        builder.cacheMaxLength(XContentMapValues.nodeIntegerValue(fieldNode));
+                        iterator.remove();
+                        break;
                     case "language_to" :
                         Map<String, Object> map = XContentMapValues.nodeMapValue(fieldNode, null);
                         LanguageTo.Builder languageToBuilder = LanguageTo.builder();
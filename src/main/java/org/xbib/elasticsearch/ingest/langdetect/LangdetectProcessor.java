@@ -0,0 +1,150 @@
+package org.xbib.elasticsearch.ingest.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+import org.xbib.elasticsearch.common.langdetect.TextSampler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ingest processor that detects the languages of a string field and writes them as a list of
+ * objects with {@code language} and {@code probability} into the target field.
+ *
+ * The language models are shared by all processors of a node through the {@link LangdetectModelRegistry}.
+ */
+public final class LangdetectProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "langdetect";
+
+    private final String field;
+
+    private final String targetField;
+
+    private final TextSampler textSampler;
+
+    private final boolean ignoreMissing;
+
+    private final LangdetectService service;
+
+    LangdetectProcessor(String tag, String field, String targetField, int maxLength, boolean ignoreMissing,
+                        LangdetectService service) {
+        super(tag);
+        this.field = field;
+        this.targetField = targetField;
+        this.textSampler = new TextSampler(maxLength, 0, 0);
+        this.ignoreMissing = ignoreMissing;
+        this.service = service;
+    }
+
+    @Override
+    public void execute(IngestDocument document) throws Exception {
+        String text = document.getFieldValue(field, String.class, ignoreMissing);
+        if (text == null) {
+            if (ignoreMissing) {
+                return;
+            }
+            throw new IllegalArgumentException("field [" + field + "] is null, cannot detect language");
+        }
+        List<Map<String, Object>> languages = new ArrayList<>();
+        for (Language language : service.detectAll(textSampler.sample(text))) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("language", language.getLanguage());
+            map.put("probability", language.getProbability());
+            languages.add(map);
+        }
+        document.setFieldValue(targetField, languages);
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    /**
+     * Creates langdetect processors from pipeline definitions.
+     */
+    public static final class Factory implements Processor.Factory {
+
+        /**
+         * The prefix of the owners of the models in the registry. Pipelines are not bound to an index, and
+         * all processors are created anew on each change of the pipelines, so the models are owned by a
+         * generation of processors, which is released when the pipelines are changed again.
+         */
+        static final String OWNER = "_ingest";
+
+        private final LangdetectModelRegistry modelRegistry;
+
+        private long generation;
+
+        private long released;
+
+        public Factory(LangdetectModelRegistry modelRegistry) {
+            this.modelRegistry = modelRegistry;
+        }
+
+        @Override
+        public LangdetectProcessor create(Map<String, Processor.Factory> registry, String tag,
+                                          Map<String, Object> config) throws Exception {
+            String field = ConfigurationUtils.readStringProperty(TYPE, tag, config, "field");
+            String targetField = ConfigurationUtils.readStringProperty(TYPE, tag, config, "target_field",
+                    "language");
+            int maxLength = ConfigurationUtils.readIntProperty(TYPE, tag, config, "max_length", -1);
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing",
+                    false);
+            Settings.Builder settings = Settings.builder()
+                    .put("model", ConfigurationUtils.readStringProperty(TYPE, tag, config, "model",
+                            LangdetectModel.HEAP));
+            String profile = ConfigurationUtils.readOptionalStringProperty(TYPE, tag, config, "profile");
+            if (profile != null) {
+                settings.put("profile", profile);
+            }
+            List<String> languages = ConfigurationUtils.readOptionalList(TYPE, tag, config, "languages");
+            if (languages != null) {
+                settings.putArray("languages", languages.toArray(new String[languages.size()]));
+            }
+            String mode = ConfigurationUtils.readOptionalStringProperty(TYPE, tag, config, "mode");
+            if (mode != null) {
+                settings.put("mode", mode);
+            }
+            Integer max = ConfigurationUtils.readIntProperty(TYPE, tag, config, "max", null);
+            if (max != null) {
+                settings.put("max", max);
+            }
+            settings.put("script_routing", ConfigurationUtils.readBooleanProperty(TYPE, tag, config,
+                    "script_routing", false));
+            LangdetectService service;
+            try {
+                Settings serviceSettings = settings.build();
+                service = new LangdetectService(serviceSettings, modelRegistry.acquire(owner(), serviceSettings));
+            } catch (Exception e) {
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "languages", e);
+            }
+            return new LangdetectProcessor(tag, field, targetField, maxLength, ignoreMissing, service);
+        }
+
+        private synchronized String owner() {
+            return OWNER + "/" + generation;
+        }
+
+        /**
+         * Release the models of all processors that were replaced. Must be called after the processors
+         * of changed pipelines have been created.
+         */
+        public synchronized void releaseReplaced() {
+            for (; released < generation; released++) {
+                modelRegistry.release(OWNER + "/" + released);
+            }
+            generation++;
+        }
+    }
+}
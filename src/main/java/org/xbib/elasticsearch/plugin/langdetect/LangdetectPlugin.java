@@ -3,23 +3,51 @@ package org.xbib.elasticsearch.plugin.langdetect;
 import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.ActionResponse;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.settings.ClusterSettings;
 import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.mapper.Mapper;
+import org.elasticsearch.index.shard.IndexEventListener;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.ingest.IngestMetadata;
+import org.elasticsearch.ingest.Processor;
 import org.elasticsearch.plugins.ActionPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.MapperPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 import org.xbib.elasticsearch.action.langdetect.LangdetectAction;
+import org.xbib.elasticsearch.action.langdetect.MultiLangdetectAction;
 import org.xbib.elasticsearch.action.langdetect.TransportLangdetectAction;
+import org.xbib.elasticsearch.action.langdetect.TransportMultiLangdetectAction;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
 import org.xbib.elasticsearch.index.mapper.langdetect.LangdetectMapper;
+import org.xbib.elasticsearch.ingest.langdetect.LangdetectProcessor;
+import org.xbib.elasticsearch.rest.action.langdetect.RestBulkLangdetectAction;
 import org.xbib.elasticsearch.rest.action.langdetect.RestLangdetectAction;
+import org.xbib.elasticsearch.rest.action.langdetect.RestLangdetectStatsAction;
+import org.xbib.elasticsearch.rest.action.langdetect.RestMultiLangdetectAction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,19 +56,83 @@ import java.util.function.Supplier;
 /**
  *
  */
-public class LangdetectPlugin extends Plugin implements MapperPlugin, ActionPlugin {
+public class LangdetectPlugin extends Plugin implements MapperPlugin, ActionPlugin, IngestPlugin {
+
+    /**
+     * The name of the thread pool for detection requests. Its size and queue size can be changed by the
+     * node settings {@code thread_pool.langdetect.size} and {@code thread_pool.langdetect.queue_size}.
+     */
+    public static final String THREAD_POOL_NAME = "langdetect";
+
+    private final LangdetectModelRegistry modelRegistry;
+
+    private LangdetectProcessor.Factory processorFactory;
+
+    public LangdetectPlugin() {
+        this(Settings.EMPTY);
+    }
+
+    public LangdetectPlugin(Settings settings) {
+        this.modelRegistry = new LangdetectModelRegistry(settings);
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(Setting.simpleString(LangdetectModelRegistry.MODEL_DIRECTORY,
+                Setting.Property.NodeScope),
+                TransportLangdetectAction.CACHE_SIZE,
+                TransportLangdetectAction.CACHE_MAX_LENGTH,
+                RestBulkLangdetectAction.MAX_LINES);
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        return Collections.singletonList(new FixedExecutorBuilder(settings, THREAD_POOL_NAME,
+                EsExecutors.boundedNumberOfProcessors(settings), 1000, "thread_pool." + THREAD_POOL_NAME));
+    }
 
     @Override
     public Map<String, Mapper.TypeParser> getMappers() {
         Map<String, Mapper.TypeParser> extra = new LinkedHashMap<>();
-        extra.put(LangdetectMapper.MAPPER_TYPE, new LangdetectMapper.TypeParser());
+        extra.put(LangdetectMapper.MAPPER_TYPE, new LangdetectMapper.TypeParser(modelRegistry));
         return extra;
     }
 
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        processorFactory = new LangdetectProcessor.Factory(modelRegistry);
+        return Collections.singletonMap(LangdetectProcessor.TYPE, processorFactory);
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService,
+                                               ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry) {
+        // the pipelines are rebuilt by a cluster state applier, which runs before the listeners
+        clusterService.addListener(event -> {
+            if (processorFactory != null && event.changedCustomMetaDataSet().contains(IngestMetadata.TYPE)) {
+                processorFactory.releaseReplaced();
+            }
+        });
+        return Collections.singletonList(modelRegistry);
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexRemoved(Index index, IndexSettings indexSettings, IndexRemovalReason reason) {
+                modelRegistry.release(index.getUUID());
+            }
+        });
+    }
+
     @Override
     public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
         List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> extra = new ArrayList<>();
         extra.add(new ActionHandler<>(LangdetectAction.INSTANCE, TransportLangdetectAction.class));
+        extra.add(new ActionHandler<>(MultiLangdetectAction.INSTANCE, TransportMultiLangdetectAction.class));
         return extra;
     }
 
@@ -54,6 +146,14 @@ public class LangdetectPlugin extends Plugin implements MapperPlugin, ActionPlug
                                              Supplier<DiscoveryNodes> nodesInCluster) {
         List<RestHandler> extra = new ArrayList<>();
         extra.add(new RestLangdetectAction(settings, restController));
+        extra.add(new RestMultiLangdetectAction(settings, restController));
+        extra.add(new RestBulkLangdetectAction(settings, restController));
+        extra.add(new RestLangdetectStatsAction(settings, restController, modelRegistry));
         return extra;
     }
+
+    @Override
+    public void close() {
+        modelRegistry.close();
+    }
 }
@@ -0,0 +1,248 @@
+package org.xbib.elasticsearch.rest.action.langdetect;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.xbib.elasticsearch.action.langdetect.LangdetectAction;
+import org.xbib.elasticsearch.action.langdetect.LangdetectRequest;
+import org.xbib.elasticsearch.action.langdetect.LangdetectResponse;
+import org.xbib.elasticsearch.action.langdetect.ThrottledDispatcher;
+import org.xbib.elasticsearch.common.langdetect.Language;
+import org.xbib.elasticsearch.plugin.langdetect.LangdetectPlugin;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Language detection for newline-delimited JSON. Each line of the body is an object with an {@code id}, a
+ * {@code text} and an optional {@code profile}. Each line of the response is an object with the {@code id} and
+ * the detected {@code languages}, or an {@code error}, in the order in which the detections complete.
+ *
+ * Lines are parsed one at a time when they are dispatched, and at most as many detections as the langdetect
+ * thread pool has threads are in flight, so neither parsed requests nor queued tasks pile up. Elasticsearch
+ * receives the whole body and sends the whole response at once, so neither can be streamed. The body is
+ * bounded by {@code http.max_content_length}, and the response by the node setting
+ * {@code langdetect.bulk.max_lines}, the maximum number of lines of a request.
+ */
+public class RestBulkLangdetectAction extends BaseRestHandler {
+
+    /**
+     * The maximum number of lines of a bulk request.
+     */
+    public static final Setting<Integer> MAX_LINES =
+            Setting.intSetting("langdetect.bulk.max_lines", 10000, 1, Setting.Property.NodeScope);
+
+    private final int maxLines;
+
+    @Inject
+    public RestBulkLangdetectAction(Settings settings, RestController controller) {
+        super(settings);
+        this.maxLines = MAX_LINES.get(settings);
+        controller.registerHandler(POST, "/_langdetect/_bulk", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        if (!request.hasContent()) {
+            throw new IllegalArgumentException("request body is required");
+        }
+        BytesReference content = request.content();
+        // count the lines that are dispatched: the last line needs no newline, and blank lines are skipped
+        int lines = 0;
+        for (int position = 0; position < content.length(); ) {
+            int end = position;
+            while (end < content.length() && content.get(end) != '\n') {
+                end++;
+            }
+            if (!BulkDetection.isBlank(content.slice(position, end - position)) && ++lines > maxLines) {
+                throw new IllegalArgumentException("bulk request has more than [" + maxLines + "] lines");
+            }
+            position = end + 1;
+        }
+        String profile = request.param("profile", "");
+        int concurrency = Math.max(1, client.threadPool().info(LangdetectPlugin.THREAD_POOL_NAME).getMax());
+        return channel -> new BulkDetection(channel, client, content, profile).start(concurrency);
+    }
+
+    private static class BulkDetection extends ThrottledDispatcher {
+
+        private final RestChannel channel;
+
+        private final NodeClient client;
+
+        private final BytesReference content;
+
+        private final String profile;
+
+        private final BytesStreamOutput out = new BytesStreamOutput();
+
+        private int position;
+
+        private int line;
+
+        private int pending;
+
+        private boolean done;
+
+        BulkDetection(RestChannel channel, NodeClient client, BytesReference content, String profile) {
+            this.channel = channel;
+            this.client = client;
+            this.content = content;
+            this.profile = profile;
+        }
+
+        /**
+         * Dispatch the next line, or send the response if all lines are done. Malformed lines are reported
+         * and skipped in a loop.
+         */
+        @Override
+        protected void dispatchNext() {
+            while (true) {
+                BytesReference slice = null;
+                int lineNumber;
+                synchronized (this) {
+                    while (slice == null && position < content.length()) {
+                        int end = position;
+                        while (end < content.length() && content.get(end) != '\n') {
+                            end++;
+                        }
+                        slice = content.slice(position, end - position);
+                        position = end + 1;
+                        line++;
+                        if (isBlank(slice)) {
+                            slice = null;
+                        }
+                    }
+                    if (slice == null) {
+                        if (pending == 0 && !done) {
+                            done = true;
+                            channel.sendResponse(new BytesRestResponse(RestStatus.OK, "application/x-ndjson",
+                                    out.bytes()));
+                        }
+                        return;
+                    }
+                    lineNumber = line;
+                    pending++;
+                }
+                Object id = null;
+                LangdetectRequest request = new LangdetectRequest().setProfile(profile);
+                try (XContentParser parser = XContentType.JSON.xContent().createParser(channel.request()
+                        .getXContentRegistry(), slice)) {
+                    if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                        throw new IllegalArgumentException("line [" + lineNumber + "] is not an object");
+                    }
+                    String currentFieldName = null;
+                    XContentParser.Token token;
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                        if (token == XContentParser.Token.FIELD_NAME) {
+                            currentFieldName = parser.currentName();
+                        } else if ("id".equals(currentFieldName) && token.isValue()) {
+                            id = parser.objectText();
+                        } else if ("text".equals(currentFieldName) && token.isValue()) {
+                            request.setText(parser.text());
+                        } else if ("profile".equals(currentFieldName) && token.isValue()) {
+                            request.setProfile(parser.text());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (request.getText() == null) {
+                        throw new IllegalArgumentException("text is missing in line [" + lineNumber + "]");
+                    }
+                } catch (Exception e) {
+                    onFailure(id, lineNumber, e);
+                    synchronized (this) {
+                        pending--;
+                    }
+                    continue;
+                }
+                final Object lineId = id;
+                client.execute(LangdetectAction.INSTANCE, request, new ActionListener<LangdetectResponse>() {
+                    @Override
+                    public void onResponse(LangdetectResponse response) {
+                        try {
+                            XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+                            if (lineId != null) {
+                                builder.field("id", lineId);
+                            }
+                            builder.startArray("languages");
+                            for (Language lang : response.getLanguages()) {
+                                builder.startObject().field("language", lang.getLanguage())
+                                        .field("probability", lang.getProbability()).endObject();
+                            }
+                            builder.endArray().endObject();
+                            write(builder);
+                        } catch (IOException e) {
+                            BulkDetection.this.onFailure(lineId, lineNumber, e);
+                        }
+                        complete();
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        BulkDetection.this.onFailure(lineId, lineNumber, e);
+                        complete();
+                    }
+                });
+                return;
+            }
+        }
+
+        private void complete() {
+            synchronized (this) {
+                pending--;
+            }
+            dispatch();
+        }
+
+        private void onFailure(Object id, int lineNumber, Exception e) {
+            try {
+                XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+                if (id != null) {
+                    builder.field("id", id);
+                }
+                builder.field("line", lineNumber);
+                ElasticsearchException.generateFailureXContent(builder, ToXContent.EMPTY_PARAMS, e, false);
+                builder.field("status", ExceptionsHelper.status(e).getStatus());
+                write(builder.endObject());
+            } catch (IOException ioe) {
+                throw new ElasticsearchException(ioe);
+            }
+        }
+
+        private void write(XContentBuilder builder) throws IOException {
+            synchronized (out) {
+                builder.bytes().writeTo(out);
+                out.writeByte((byte) '\n');
+            }
+        }
+
+        private static boolean isBlank(BytesReference slice) {
+            for (int i = 0; i < slice.length(); i++) {
+                byte b = slice.get(i);
+                if (b != ' ' && b != '\t' && b != '\r') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.xbib.elasticsearch.rest.action.langdetect;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * The statistics of the result caches of this node. The caches are grouped by owner, which is
+ * {@code langdetect} for the caches of the {@code _langdetect} endpoints, keyed by profile, and the index
+ * UUID for the caches of langdetect fields, keyed by field name.
+ */
+public class RestLangdetectStatsAction extends BaseRestHandler {
+
+    private final LangdetectModelRegistry modelRegistry;
+
+    @Inject
+    public RestLangdetectStatsAction(Settings settings, RestController controller,
+                                     LangdetectModelRegistry modelRegistry) {
+        super(settings);
+        this.modelRegistry = modelRegistry;
+        controller.registerHandler(GET, "/_langdetect/_stats", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        return channel -> {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject().startObject("caches");
+            for (Map.Entry<String, Map<String, Cache.CacheStats>> owner : modelRegistry.getCacheStats().entrySet()) {
+                builder.startObject(owner.getKey());
+                for (Map.Entry<String, Cache.CacheStats> entry : owner.getValue().entrySet()) {
+                    builder.startObject(entry.getKey())
+                            .field("hits", entry.getValue().getHits())
+                            .field("misses", entry.getValue().getMisses())
+                            .field("evictions", entry.getValue().getEvictions())
+                            .endObject();
+                }
+                builder.endObject();
+            }
+            builder.endObject().endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package org.xbib.elasticsearch.rest.action.langdetect;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestToXContentListener;
+import org.xbib.elasticsearch.action.langdetect.LangdetectRequest;
+import org.xbib.elasticsearch.action.langdetect.MultiLangdetectAction;
+import org.xbib.elasticsearch.action.langdetect.MultiLangdetectRequest;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * Language detection for many texts. The body holds an array {@code texts} of strings, or of objects with
+ * a {@code text} and an optional {@code profile}. The profile of the URL applies to all texts without
+ * their own profile.
+ */
+public class RestMultiLangdetectAction extends BaseRestHandler {
+
+    @Inject
+    public RestMultiLangdetectAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(GET, "/_mlangdetect", this);
+        controller.registerHandler(GET, "/_mlangdetect/{profile}", this);
+        controller.registerHandler(POST, "/_mlangdetect", this);
+        controller.registerHandler(POST, "/_mlangdetect/{profile}", this);
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) throws IOException {
+        final MultiLangdetectRequest multiLangdetectRequest = new MultiLangdetectRequest();
+        String defaultProfile = request.param("profile", "");
+        BytesReference content = request.content();
+        if (content.length() > 0) {
+            try (XContentParser parser = XContentType.JSON.xContent()
+                    .createParser(request.getXContentRegistry(), content)) {
+                parse(parser, defaultProfile, multiLangdetectRequest);
+            }
+        }
+        return channel -> client.execute(MultiLangdetectAction.INSTANCE, multiLangdetectRequest,
+                new RestToXContentListener<>(channel));
+    }
+
+    private static void parse(XContentParser parser, String defaultProfile, MultiLangdetectRequest request)
+            throws IOException {
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.START_OBJECT) {
+            throw new IllegalArgumentException("expected an object, but got " + token);
+        }
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_ARRAY && "texts".equals(currentFieldName)) {
+                while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                    LangdetectRequest langdetectRequest = new LangdetectRequest().setProfile(defaultProfile);
+                    if (token == XContentParser.Token.START_OBJECT) {
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                            if (token == XContentParser.Token.FIELD_NAME) {
+                                currentFieldName = parser.currentName();
+                            } else if ("text".equals(currentFieldName)) {
+                                langdetectRequest.setText(parser.text());
+                            } else if ("profile".equals(currentFieldName)) {
+                                langdetectRequest.setProfile(parser.text());
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                        currentFieldName = "texts";
+                    } else {
+                        langdetectRequest.setText(parser.text());
+                    }
+                    request.add(langdetectRequest);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
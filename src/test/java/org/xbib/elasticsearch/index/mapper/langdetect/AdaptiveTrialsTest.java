@@ -0,0 +1,50 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.util.List;
+
+/**
+ * Tests for the adaptive number of trials and iteration budget.
+ */
+public class AdaptiveTrialsTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("profile", "merged-average")
+            .put("languages", LangdetectModel.ALL_LANGUAGES)
+            .build();
+
+    @Test
+    public void testSameLanguages() throws Exception {
+        for (Settings settings : new Settings[] {SETTINGS,
+                Settings.builder().put(SETTINGS).put("script_routing", true).put("prune_threshold", 1e-6).build()}) {
+            LangdetectService service = new LangdetectService(settings);
+            LangdetectService adaptive = new LangdetectService(Settings.builder().put(settings)
+                    .put("adaptive", true).build());
+            DetectionFixtures.assertSameTopLanguage(service, adaptive, 0.01);
+        }
+    }
+
+    @Test
+    public void testEarlyStop() throws Exception {
+        // a clear text is settled after two trials, as if only two trials were configured
+        Settings settings = Settings.builder().put(SETTINGS).put("adaptive", true).build();
+        LangdetectService seven = new LangdetectService(settings);
+        LangdetectService two = new LangdetectService(Settings.builder().put(settings)
+                .put("number_of_trials", 2).build());
+        for (String text : DetectionFixtures.texts()) {
+            List<Language> expected = two.detectAll(text);
+            List<Language> actual = seven.detectAll(text);
+            assertEquals(text, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(text, expected.get(i).getLanguage(), actual.get(i).getLanguage());
+                assertEquals(text, expected.get(i).getProbability(), actual.get(i).getProbability(), 1e-12);
+            }
+        }
+    }
+}
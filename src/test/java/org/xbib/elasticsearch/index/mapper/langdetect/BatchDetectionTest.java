@@ -0,0 +1,104 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+import org.xbib.elasticsearch.common.langdetect.NGram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for the detection of many texts at once.
+ */
+public class BatchDetectionTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("profile", "merged-average")
+            .put("languages", LangdetectModel.ALL_LANGUAGES)
+            .build();
+
+    private List<CharSequence> texts() throws IOException {
+        List<CharSequence> texts = new ArrayList<>(DetectionFixtures.texts());
+        // an empty text, a text without n-grams, a text that is not a string, and a repeated text
+        texts.add(1, "");
+        texts.add(3, "1234 5678");
+        texts.set(4, new StringBuilder(texts.get(4)));
+        texts.add(5, "Das kann deutsch sein");
+        return texts;
+    }
+
+    private void assertBatch(LangdetectService service) throws Exception {
+        List<CharSequence> texts = texts();
+        List<List<Language>> batch = service.detectAll(texts);
+        assertEquals(texts.size(), batch.size());
+        for (int i = 0; i < texts.size(); i++) {
+            List<Language> expected = service.detectAll(texts.get(i).toString());
+            List<Language> actual = batch.get(i);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getLanguage(), actual.get(j).getLanguage());
+                assertEquals(expected.get(j).getProbability(), actual.get(j).getProbability(), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testTrials() throws Exception {
+        assertBatch(new LangdetectService(SETTINGS));
+    }
+
+    @Test
+    public void testExact() throws Exception {
+        assertBatch(new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("mode", LangdetectService.EXACT).build()));
+    }
+
+    @Test
+    public void testPattern() throws Exception {
+        assertBatch(new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("mode", LangdetectService.EXACT)
+                .put("pattern", "^[\\P{IsDigit}\\s]+$").build()));
+    }
+
+    @Test
+    public void testRowsReadOnce() throws Exception {
+        String[] languages = LangdetectModel.ALL_LANGUAGES.split(",");
+        CountingModel model = new CountingModel(LangdetectModel.load("merged-average", languages,
+                LangdetectModel.HEAP, null));
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("mode", LangdetectService.EXACT).build(), model);
+        List<CharSequence> texts = texts();
+        long single = 0L;
+        for (CharSequence text : texts) {
+            model.reads = 0L;
+            service.detectAll(text.toString());
+            single += model.reads;
+        }
+        model.reads = 0L;
+        service.detectAll(texts);
+        // each distinct row of the batch is read once for each language
+        Set<Integer> rows = new HashSet<>();
+        NGram ngram = new NGram();
+        for (CharSequence text : texts) {
+            int[] buffer = new int[text.length() * NGram.N_GRAM];
+            int n = ngram.extract(text, model, buffer);
+            for (int i = 0; i < n; i++) {
+                rows.add(buffer[i]);
+            }
+        }
+        assertEquals((long) rows.size() * model.size(), model.reads);
+        assertTrue(model.reads < single);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(new LangdetectService(SETTINGS).detectAll(new ArrayList<CharSequence>()).isEmpty());
+    }
+}
@@ -0,0 +1,63 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for detection on a single service from many threads.
+ */
+public class ConcurrentDetectionTest extends Assert {
+
+    private static final String[] TEXTS = {
+            "Das kann deutsch sein",
+            "This is a very small test",
+            "Allons enfants de la Patrie, Le jour de gloire est arrivé!",
+            "Datt isse ne test",
+            "Dies ist ein etwas längerer deutscher Text, der über mehrere Wörter geht."
+    };
+
+    @Test
+    public void testConcurrentDetection() throws Exception {
+        LangdetectService service = new LangdetectService();
+        List<List<Language>> expected = new ArrayList<>();
+        for (String text : TEXTS) {
+            expected.add(service.detectAll(text));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                final int offset = t;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < 50; i++) {
+                        int k = (offset + i) % TEXTS.length;
+                        assertSameLanguages(expected.get(k), service.detectAll(TEXTS[k]));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertSameLanguages(List<Language> expected, List<Language> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getLanguage(), actual.get(i).getLanguage());
+            assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 0d);
+        }
+    }
+}
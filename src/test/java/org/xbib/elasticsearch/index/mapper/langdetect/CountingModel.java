@@ -0,0 +1,36 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+
+/**
+ * A model that counts the reads of probabilities.
+ */
+class CountingModel extends LangdetectModel {
+
+    private final LangdetectModel model;
+
+    long reads;
+
+    CountingModel(LangdetectModel model) {
+        super(model.getProfile(), model.getLanguages());
+        this.model = model;
+    }
+
+    @Override
+    public int row(long gram) {
+        return model.row(gram);
+    }
+
+    @Override
+    public double get(int row, int index) {
+        reads++;
+        return model.get(row, index);
+    }
+
+    @Override
+    public void update(double[] prob, int row, double weight) {
+        for (int i = 0; i < prob.length; ++i) {
+            prob[i] *= weight + get(row, i);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
 import org.xbib.elasticsearch.common.langdetect.LangdetectService;
 
 import java.io.BufferedReader;
@@ -56,6 +57,7 @@ public class DetectLanguageAccuracyTest extends Assert {
 
     private static Map<String, Map<String, List<String>>> multiLanguageDatasets;
     private static Path outputPath;
+    private static String model;
 
     private final String datasetName;
     private final int substringLength;
@@ -94,8 +96,9 @@ public class DetectLanguageAccuracyTest extends Assert {
     }
 
     /**
-     * Perform the common set up tasks for tests of this class: read the datasets, and write the header row of the
-     * output CSV if the path.accuracies.out system property is set.
+     * Perform the common set up tasks for tests of this class: read the datasets, read the model type from the
+     * accuracies.model system property (default: heap), and write the header row of the output CSV if the
+     * path.accuracies.out system property is set.
      */
     @BeforeClass
     public static void setUp() throws IOException {
@@ -103,6 +106,7 @@ public class DetectLanguageAccuracyTest extends Assert {
         multiLanguageDatasets.put("udhr", readMultiLanguageDataset("udhr.tsv"));
         multiLanguageDatasets.put("wordpress-translations", readMultiLanguageDataset("wordpress-translations.tsv"));
 
+        model = System.getProperty("accuracies.model", LangdetectModel.HEAP);
         String outputPathStr = System.getProperty("path.accuracies.out");
         if (outputPathStr != null && !outputPathStr.isEmpty()) {
             logger.warn("File argument given ({}) -- running in output mode without assertions", outputPathStr);
@@ -140,6 +144,7 @@ public class DetectLanguageAccuracyTest extends Assert {
             Settings.builder()
                     .put("languages", languageSetting)
                     .put("profile", profileParam)
+                    .put("model", model)
                     .build()
         );
         Map<String, List<String>> languageToFullTexts = multiLanguageDatasets.get(datasetName);
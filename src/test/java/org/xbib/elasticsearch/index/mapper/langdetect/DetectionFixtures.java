@@ -0,0 +1,74 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.io.Streams;
+import org.junit.Assert;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The texts and comparisons shared by the tests of alternative models and detection options.
+ */
+final class DetectionFixtures {
+
+    private DetectionFixtures() {
+    }
+
+    /**
+     * Three short texts in German, English and French, and the texts of the test resources in English,
+     * Chinese, Japanese and Korean.
+     *
+     * @return the texts
+     * @throws IOException if a resource can not be read
+     */
+    static List<String> texts() throws IOException {
+        List<String> texts = new ArrayList<>();
+        texts.add("Das kann deutsch sein");
+        texts.add("This is a very small test");
+        texts.add("Allons enfants de la Patrie, Le jour de gloire est arrivé!");
+        for (String file : new String[] {"english.txt", "chinese.txt", "japanese.txt", "korean.txt"}) {
+            try (Reader reader = new InputStreamReader(DetectionFixtures.class.getResourceAsStream(file),
+                    StandardCharsets.UTF_8)) {
+                texts.add(Streams.copyToString(reader));
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * Assert that two services detect the same top language in each text.
+     *
+     * @param expected the reference service
+     * @param actual the service under test
+     * @throws Exception if detection fails
+     */
+    static void assertSameTopLanguage(LangdetectService expected, LangdetectService actual) throws Exception {
+        assertSameTopLanguage(expected, actual, Double.NaN);
+    }
+
+    /**
+     * Assert that two services detect the same top language in each text, with the same probability.
+     *
+     * @param expected the reference service
+     * @param actual the service under test
+     * @param delta the allowed difference of the probabilities, or NaN if the probabilities are not compared
+     * @throws Exception if detection fails
+     */
+    static void assertSameTopLanguage(LangdetectService expected, LangdetectService actual, double delta)
+            throws Exception {
+        for (String text : texts()) {
+            Language first = expected.detectAll(text).get(0);
+            Language second = actual.detectAll(text).get(0);
+            Assert.assertEquals(text, first.getLanguage(), second.getLanguage());
+            if (!Double.isNaN(delta)) {
+                Assert.assertEquals(text, first.getProbability(), second.getProbability(), delta);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests for the exact detection mode.
+ */
+public class ExactModeTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("profile", "merged-average")
+            .put("languages", LangdetectModel.ALL_LANGUAGES)
+            .put("mode", LangdetectService.EXACT)
+            .build();
+
+    @Test
+    public void testLongTexts() throws IOException {
+        LangdetectService service = new LangdetectService(SETTINGS);
+        String[][] files = {{"english.txt", "en"}, {"chinese.txt", "zh-cn"}, {"japanese.txt", "ja"},
+                {"korean.txt", "ko"}};
+        for (String[] file : files) {
+            try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(file[0]),
+                    StandardCharsets.UTF_8)) {
+                assertEquals(file[1], DetectLanguageTest.getTopLanguageCode(service, Streams.copyToString(reader)));
+            }
+        }
+    }
+
+    @Test
+    public void testShortTexts() throws Exception {
+        LangdetectService service = new LangdetectService(SETTINGS);
+        assertEquals("de", DetectLanguageTest.getTopLanguageCode(service, "Das kann deutsch sein"));
+        assertEquals("en", DetectLanguageTest.getTopLanguageCode(service, "This is a very small test"));
+        assertEquals("fr", DetectLanguageTest.getTopLanguageCode(service,
+                "Allons enfants de la Patrie, Le jour de gloire est arrivé!"));
+        assertTrue(service.detectAll("").isEmpty());
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        String text = "Datt isse ne test";
+        List<Language> expected = new LangdetectService(SETTINGS).detectAll(text);
+        // the number of trials is irrelevant in exact mode
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("number_of_trials", 1).build());
+        for (int i = 0; i < 3; i++) {
+            List<Language> actual = service.detectAll(text);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getLanguage(), actual.get(j).getLanguage());
+                assertEquals(expected.get(j).getProbability(), actual.get(j).getProbability(), 0d);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMode() {
+        new LangdetectService(Settings.builder().put(SETTINGS).put("mode", "fast").build());
+    }
+}
@@ -0,0 +1,40 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+
+/**
+ * Tests for language models in single precision.
+ */
+public class FloatModelTest extends Assert {
+
+    @Test
+    public void testProbabilities() throws Exception {
+        String[] languages = {"de", "en", "fr"};
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel single = LangdetectModel.load("merged-average", languages, LangdetectModel.FLOAT, null);
+        assertEquals(heap.getLanguages(), single.getLanguages());
+        for (String word : new String[] {"d", "de", "der", "the", "le ", "xyz"}) {
+            assertEquals(heap.contains(word), single.contains(word));
+            for (int i = 0; i < languages.length; i++) {
+                assertEquals((float) heap.get(word, i), single.get(word, i), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testSameLanguagesAsHeap() throws Exception {
+        String[] languages = LangdetectModel.ALL_LANGUAGES.split(",");
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel single = LangdetectModel.load("merged-average", languages, LangdetectModel.FLOAT, null);
+        for (String mode : new String[] {LangdetectService.TRIALS, LangdetectService.EXACT}) {
+            Settings settings = Settings.builder().put("mode", mode).build();
+            LangdetectService heapService = new LangdetectService(settings, heap);
+            LangdetectService singleService = new LangdetectService(settings, single);
+            DetectionFixtures.assertSameTopLanguage(heapService, singleService, 1e-4);
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package org.xbib.elasticsearch.index.mapper.langdetect;
 
+import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.threadpool.ThreadPoolStats;
 import org.junit.Test;
 import org.xbib.elasticsearch.NodeTestUtils;
 import org.xbib.elasticsearch.action.langdetect.LangdetectRequestBuilder;
 import org.xbib.elasticsearch.action.langdetect.LangdetectResponse;
+import org.xbib.elasticsearch.action.langdetect.MultiLangdetectRequestBuilder;
+import org.xbib.elasticsearch.action.langdetect.MultiLangdetectResponse;
+import org.xbib.elasticsearch.plugin.langdetect.LangdetectPlugin;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.junit.Assert.assertEquals;
@@ -56,6 +61,53 @@ public class LangDetectActionTest extends NodeTestUtils {
         }
     }
 
+    @Test
+    public void testMultiLangDetect() throws Exception {
+        startCluster();
+        try {
+            String[] texts = {"hello this is a test", "Das ist ein Test", "C'est un petit test"};
+            String[] expected = {"en", "de", "fr"};
+            MultiLangdetectRequestBuilder builder = new MultiLangdetectRequestBuilder(client());
+            for (int i = 0; i < 100; i++) {
+                builder.add(texts[i % texts.length]);
+            }
+            builder.add("short-text", "hello this is a test");
+            MultiLangdetectResponse response = builder.execute().actionGet();
+            assertEquals(101, response.getResponses().length);
+            for (int i = 0; i < 100; i++) {
+                MultiLangdetectResponse.Item item = response.getResponses()[i];
+                assertFalse(item.isFailure());
+                assertEquals(expected[i % texts.length], item.getResponse().getLanguages().get(0).getLanguage());
+            }
+            assertEquals("short-text", response.getResponses()[100].getResponse().getProfile());
+        } finally {
+            stopCluster();
+        }
+    }
+
+    @Test
+    public void testThreadPool() throws Exception {
+        startCluster();
+        try {
+            for (int i = 0; i < 3; i++) {
+                new LangdetectRequestBuilder(client()).setText("hello this is a test").execute().actionGet();
+            }
+            NodesStatsResponse response = client().admin().cluster().prepareNodesStats()
+                    .setThreadPool(true).execute().actionGet();
+            ThreadPoolStats.Stats stats = null;
+            for (ThreadPoolStats.Stats s : response.getNodes().get(0).getThreadPool()) {
+                if (LangdetectPlugin.THREAD_POOL_NAME.equals(s.getName())) {
+                    stats = s;
+                }
+            }
+            assertNotNull(stats);
+            assertEquals(3L, stats.getCompleted());
+            assertEquals(0L, stats.getRejected());
+        } finally {
+            stopCluster();
+        }
+    }
+
     @Test
     public void testSort() throws Exception {
         startCluster();
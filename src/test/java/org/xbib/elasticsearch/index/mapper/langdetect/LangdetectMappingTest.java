@@ -11,6 +11,7 @@ import org.xbib.elasticsearch.MapperTestUtils;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 import static org.elasticsearch.common.io.Streams.copyToString;
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
@@ -142,6 +143,75 @@ public class LangdetectMappingTest extends Assert {
         assertEquals("This is a very small example of a text", doc.getFields("english_field")[0].stringValue());
     }
 
+    @Test
+    public void testMaxLength() throws Exception {
+        String mapping = jsonBuilder().startObject().startObject("someType").startObject("properties")
+                .startObject("someField")
+                .field("type", "langdetect")
+                .array("languages", "de", "en")
+                .field("max_length", 40)
+                .endObject().endObject().endObject().endObject().string();
+        DocumentMapper docMapper = MapperTestUtils.newDocumentMapperParser("someIndex").parse("someType",
+                new CompressedXContent(mapping));
+        StringBuilder sb = new StringBuilder(copyToStringFromClasspath("german.txt"));
+        for (int i = 0; i < 100; i++) {
+            sb.append(' ').append(copyToStringFromClasspath("english.txt"));
+        }
+        BytesReference json = jsonBuilder().startObject().field("someField", sb.toString()).endObject().bytes();
+        ParseContext.Document doc = docMapper.parse("someIndex", "someType", "1", json).rootDoc();
+        assertEquals(1, doc.getFields("someField").length);
+        assertEquals("de", doc.getFields("someField")[0].stringValue());
+        // binary values are cut before decoding
+        mapping = jsonBuilder().startObject().startObject("someType").startObject("properties")
+                .startObject("someField")
+                .field("type", "langdetect")
+                .array("languages", "de", "en")
+                .field("binary", true)
+                .field("max_length", 40)
+                .endObject().endObject().endObject().endObject().string();
+        docMapper = MapperTestUtils.newDocumentMapperParser("someIndex").parse("someType",
+                new CompressedXContent(mapping));
+        json = jsonBuilder().startObject().field("someField", sb.toString().getBytes(StandardCharsets.UTF_8))
+                .endObject().bytes();
+        doc = docMapper.parse("someIndex", "someType", "1", json).rootDoc();
+        assertEquals("de", doc.getFields("someField")[0].stringValue());
+        // values that are not base64 are cut as text
+        json = jsonBuilder().startObject().field("someField", sb.toString()).endObject().bytes();
+        doc = docMapper.parse("someIndex", "someType", "1", json).rootDoc();
+        assertEquals(1, doc.getFields("someField").length);
+        assertEquals("de", doc.getFields("someField")[0].stringValue());
+    }
+
+    @Test
+    public void testSampleWindows() throws Exception {
+        String mapping = jsonBuilder().startObject().startObject("someType").startObject("properties")
+                .startObject("someField")
+                .field("type", "langdetect")
+                .array("languages", "de", "en")
+                .field("sample_windows", 3)
+                .field("sample_window_size", 37)
+                .endObject().endObject().endObject().endObject().string();
+        DocumentMapper docMapper = MapperTestUtils.newDocumentMapperParser("someIndex").parse("someType",
+                new CompressedXContent(mapping));
+        // the windows are taken at the beginning, in the middle and at the end
+        String german = copyToStringFromClasspath("german.txt");
+        StringBuilder sb = new StringBuilder(german);
+        for (int i = 0; i < 1000; i++) {
+            sb.append(' ').append(copyToStringFromClasspath("english.txt"));
+        }
+        sb.append(' ').append(german);
+        BytesReference json = jsonBuilder().startObject().field("someField", sb.toString()).endObject().bytes();
+        ParseContext.Document doc = docMapper.parse("someIndex", "someType", "1", json).rootDoc();
+        assertEquals("de", doc.getFields("someField")[0].stringValue());
+        // re-parse it
+        String builtMapping = docMapper.mappingSource().string();
+        assertTrue(builtMapping.contains("\"sample_windows\":\"3\""));
+        docMapper = MapperTestUtils.newDocumentMapperParser("someIndex").parse("someType",
+                new CompressedXContent(builtMapping));
+        doc = docMapper.parse("someIndex", "someType", "1", json).rootDoc();
+        assertEquals("de", doc.getFields("someField")[0].stringValue());
+    }
+
     private String copyToStringFromClasspath(String path) throws IOException {
         return copyToString(new InputStreamReader(getClass().getResource(path).openStream(), "UTF-8"));
     }
@@ -0,0 +1,109 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Tests for {@link LangdetectModelRegistry}.
+ */
+public class LangdetectModelRegistryTest extends Assert {
+
+    @Test
+    public void testShared() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        String[] languages = {"de", "en", "fr"};
+        LangdetectModel model1 = registry.acquire("index1", null, languages);
+        LangdetectModel model2 = registry.acquire("index2", null, languages);
+        assertSame(model1, model2);
+        assertEquals(3, model1.size());
+        LangdetectModel model3 = registry.acquire("index1", "short-text", languages);
+        assertNotSame(model1, model3);
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        String[] languages = {"de", "en"};
+        LangdetectModel model = registry.acquire("index1", null, languages);
+        registry.acquire("index1", null, languages);
+        registry.acquire("index2", null, languages);
+        registry.release("index1");
+        assertEquals(1, registry.size());
+        assertSame(model, registry.acquire("index3", null, languages));
+        registry.release("index2");
+        registry.release("index3");
+        assertEquals(0, registry.size());
+        assertNotSame(model, registry.acquire("index1", null, languages));
+    }
+
+    @Test
+    public void testConcurrentAcquire() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        String[] languages = {"de", "en", "fr"};
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<LangdetectModel>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String owner = "index" + i;
+                futures.add(executor.submit(() -> registry.acquire(owner, null, languages)));
+            }
+            LangdetectModel model = futures.get(0).get();
+            for (Future<LangdetectModel> future : futures) {
+                assertSame(model, future.get());
+            }
+            assertEquals(1, registry.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailedLoad() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        try {
+            registry.acquire("index1", null, new String[] {"xx"});
+            fail();
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testMappedFileDeleted() throws Exception {
+        Path dir = Files.createTempDirectory("langdetect");
+        LangdetectModelRegistry registry = new LangdetectModelRegistry(Settings.builder()
+                .put(LangdetectModelRegistry.MODEL_DIRECTORY, dir.toString()).build());
+        registry.acquire("index1", null, new String[] {"de", "en"}, LangdetectModel.MAPPED);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1L, files.count());
+        }
+        registry.release("index1");
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0L, files.count());
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testDefaultDirectory() throws Exception {
+        Path home = Files.createTempDirectory("langdetect");
+        LangdetectModelRegistry registry = new LangdetectModelRegistry(Settings.builder()
+                .put("path.home", home.toString()).build());
+        assertEquals(home.resolve("data").resolve("langdetect"), registry.getDirectory());
+        Files.delete(home);
+    }
+}
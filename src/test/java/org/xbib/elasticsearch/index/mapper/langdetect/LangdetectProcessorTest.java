@@ -0,0 +1,149 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.ingest.IngestDocument;
+import org.junit.Test;
+import org.xbib.elasticsearch.NodeTestUtils;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
+import org.xbib.elasticsearch.ingest.langdetect.LangdetectProcessor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the langdetect ingest processor.
+ */
+public class LangdetectProcessorTest extends NodeTestUtils {
+
+    private static LangdetectProcessor create(LangdetectModelRegistry registry, Map<String, Object> config)
+            throws Exception {
+        return new LangdetectProcessor.Factory(registry).create(Collections.emptyMap(), null, config);
+    }
+
+    private static IngestDocument document(String field, Object value) {
+        Map<String, Object> source = new HashMap<>();
+        if (field != null) {
+            source.put(field, value);
+        }
+        return new IngestDocument("test", "test", "1", null, null, null, null, source);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDetect() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        config.put("target_field", "lang");
+        LangdetectProcessor processor = create(new LangdetectModelRegistry(), config);
+        IngestDocument document = document("text", "Hallo, wie geht es Ihnen?");
+        processor.execute(document);
+        List<Map<String, Object>> languages = document.getFieldValue("lang", List.class);
+        assertEquals("de", languages.get(0).get("language"));
+        assertEquals(0.9999958626688854, (Double) languages.get(0).get("probability"), 1e-10);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMaxLength() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        config.put("max_length", 25);
+        LangdetectProcessor processor = create(new LangdetectModelRegistry(), config);
+        IngestDocument document = document("text", "Hallo, wie geht es Ihnen? This is a very long english text, " +
+                "much longer than the german one.");
+        processor.execute(document);
+        List<Map<String, Object>> languages = document.getFieldValue("language", List.class);
+        assertEquals("de", languages.get(0).get("language"));
+    }
+
+    @Test
+    public void testIgnoreMissing() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        config.put("ignore_missing", true);
+        LangdetectProcessor processor = create(new LangdetectModelRegistry(), config);
+        IngestDocument document = document(null, null);
+        processor.execute(document);
+        assertFalse(document.hasField("language"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissing() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        create(new LangdetectModelRegistry(), config).execute(document(null, null));
+    }
+
+    @Test(expected = ElasticsearchException.class)
+    public void testUnknownLanguage() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        config.put("languages", Collections.singletonList("xx"));
+        create(new LangdetectModelRegistry(), config);
+    }
+
+    @Test
+    public void testSharedModel() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        config.put("profile", "short-text");
+        LangdetectProcessor first = create(registry, new HashMap<>(config));
+        config.put("field", "title");
+        LangdetectProcessor second = create(registry, new HashMap<>(config));
+        assertEquals(1, registry.size());
+        assertTrue(first != second);
+    }
+
+    @Test
+    public void testReleaseReplaced() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        LangdetectProcessor.Factory factory = new LangdetectProcessor.Factory(registry);
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "text");
+        config.put("profile", "short-text");
+        factory.create(Collections.emptyMap(), null, new HashMap<>(config));
+        factory.releaseReplaced();
+        assertEquals(1, registry.size());
+        config.put("profile", "merged-average");
+        factory.create(Collections.emptyMap(), null, new HashMap<>(config));
+        assertEquals(2, registry.size());
+        // the pipelines were changed, only the model of the new processor is kept
+        factory.releaseReplaced();
+        assertEquals(1, registry.size());
+        // all pipelines were deleted
+        factory.releaseReplaced();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPipeline() throws Exception {
+        startCluster();
+        try {
+            client().admin().cluster().preparePutPipeline("langdetect", new BytesArray(
+                    "{\"processors\":[{\"langdetect\":{\"field\":\"text\",\"target_field\":\"lang\"}}]}"),
+                    XContentType.JSON).get();
+            client().prepareIndex("test", "test", "1").setPipeline("langdetect")
+                    .setSource("{\"text\":\"Hallo, wie geht es Ihnen?\"}", XContentType.JSON)
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE).get();
+            GetResponse response = client().prepareGet("test", "test", "1").get();
+            List<Map<String, Object>> languages = (List<Map<String, Object>>) response.getSource().get("lang");
+            assertNotNull(languages);
+            assertEquals("de", languages.get(0).get("language"));
+        } finally {
+            stopCluster();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tests for memory-mapped language models.
+ */
+public class MappedModelTest extends Assert {
+
+    private static final String[] TEXTS = {
+            "Das kann deutsch sein",
+            "This is a very small test",
+            "Allons enfants de la Patrie, Le jour de gloire est arrivé!",
+            "Datt isse ne test"
+    };
+
+    @Test
+    public void testSameAsHeap() throws Exception {
+        Path dir = Files.createTempDirectory("langdetect");
+        String[] languages = {"de", "en", "fr", "nl", "no"};
+        LangdetectModel mapped = LangdetectModel.load("merged-average", languages, LangdetectModel.MAPPED, dir);
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, dir);
+        assertEquals(heap.getLanguages(), mapped.getLanguages());
+        Settings settings = Settings.builder().putArray("languages", languages).build();
+        LangdetectService mappedService = new LangdetectService(settings, mapped);
+        LangdetectService heapService = new LangdetectService(settings, heap);
+        for (String text : TEXTS) {
+            List<Language> expected = heapService.detectAll(text);
+            List<Language> actual = mappedService.detectAll(text);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getLanguage(), actual.get(i).getLanguage());
+                assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 0d);
+            }
+        }
+        // the existing file is mapped again
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1L, files.count());
+        }
+        LangdetectModel again = LangdetectModel.load("merged-average", languages, LangdetectModel.MAPPED, dir);
+        assertTrue(again.contains("der"));
+        assertEquals(mapped.get("der", 0), again.get("der", 0), 0d);
+    }
+}
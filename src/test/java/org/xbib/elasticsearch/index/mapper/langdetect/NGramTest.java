@@ -1,9 +1,20 @@
 package org.xbib.elasticsearch.index.mapper.langdetect;
 
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.CompositeBytesReference;
 import org.junit.Assert;
 import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
 import org.xbib.elasticsearch.common.langdetect.NGram;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 /**
  * Tests for {@link NGram}.
  */
@@ -121,6 +132,103 @@ public class NGramTest extends Assert {
 
     }
 
+    /**
+     * Test method for {@link NGram#pack(int)}.
+     */
+    @Test
+    public final void testPack() {
+        String text = "Das ist ein Test, THIS IS A TEST \u3044\u30a4 \uac01 A\u06cc\u1ea0 x";
+        NGram ngram = new NGram();
+        for (int k = 0; k < 2; k++) {
+            ngram.reset();
+            for (int i = 0; i < text.length(); i++) {
+                ngram.addChar(text.charAt(i));
+                for (int n = 0; n <= NGram.N_GRAM + 1; n++) {
+                    String gram = ngram.get(n);
+                    assertEquals(gram == null ? 0L : NGram.pack(gram), ngram.pack(n));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test method for {@link NGram#extract(CharSequence, long[])}, compared to Vietnamese normalization,
+     * non-word replacement by regular expression and {@link NGram#addChar(char)}.
+     */
+    @Test
+    public final void testExtract() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            sb.append((char) i);
+        }
+        assertExtract(sb.toString());
+        assertExtract("Vie\u0323t Nam \u00c2\u0300 \u01b0\u0309\u0323 x\u0300 \u0301a");
+        assertExtract("\ud840\udc00\ud840\udc01 \ud83d\ude00\ud83d\ude00a \ud835\udfce\ud835\udfcf \udc00\ud840 A\ud840");
+    }
+
+    private static void assertExtract(String text) {
+        String cleaned = NGram.normalizeVietnamese(text).replaceAll("[\\P{IsWord}]", " ");
+        List<Long> expected = new ArrayList<>();
+        NGram ngram = new NGram();
+        for (int i = 0; i < cleaned.length(); i++) {
+            ngram.addChar(cleaned.charAt(i));
+            for (int n = 1; n <= NGram.N_GRAM; n++) {
+                if (ngram.pack(n) != 0L) {
+                    expected.add(ngram.pack(n));
+                }
+            }
+        }
+        long[] grams = new long[text.length() * NGram.N_GRAM];
+        int size = ngram.extract(text, grams);
+        assertEquals(expected.size(), size);
+        for (int i = 0; i < size; i++) {
+            assertEquals("at " + i, expected.get(i).longValue(), grams[i]);
+        }
+    }
+
+    @Test
+    public final void testExtractBytes() throws IOException {
+        LangdetectModel model = LangdetectModel.load("merged-average", LangdetectModel.ALL_LANGUAGES.split(","));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= Character.MAX_VALUE; i++) {
+            sb.append((char) i);
+        }
+        assertExtractBytes(model, sb.toString().getBytes(StandardCharsets.UTF_8));
+        assertExtractBytes(model, "Vie\u0323t Nam \u00c2\u0300 \u01b0\u0309\u0323 x\u0300 \u0301a"
+                .getBytes(StandardCharsets.UTF_8));
+        assertExtractBytes(model, "\ud840\udc00\ud840\udc01 \ud83d\ude00\ud83d\ude00a \ud835\udfce\ud835\udfcf"
+                .getBytes(StandardCharsets.UTF_8));
+        // malformed input
+        Random random = new Random(0L);
+        byte[] german = "Das ist ein kleiner Text als Beispiel f\u00fcr \u00e4\u00f6\u00fc \u20ac"
+                .getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 1000; i++) {
+            byte[] b = german.clone();
+            for (int j = 0; j < 5; j++) {
+                b[random.nextInt(b.length)] = (byte) random.nextInt(256);
+            }
+            assertExtractBytes(model, b);
+        }
+        assertExtractBytes(model, new byte[] { (byte) 0xe0, (byte) 0x80, (byte) 0x80, 'a', 'b', (byte) 0xed,
+                (byte) 0xa0, (byte) 0x80, 'c', (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80, 'd', (byte) 0xc3 });
+    }
+
+    private static void assertExtractBytes(LangdetectModel model, byte[] b) throws IOException {
+        NGram ngram = new NGram();
+        String text = new String(b, StandardCharsets.UTF_8);
+        int[] expected = new int[text.length() * NGram.N_GRAM];
+        int size = ngram.extract(text, model, expected);
+        int[] rows = new int[b.length * NGram.N_GRAM];
+        assertEquals(size, ngram.extract(new BytesArray(b), model, rows));
+        assertArrayEquals(Arrays.copyOf(expected, size), Arrays.copyOf(rows, size));
+        // sequences may span pages
+        int split = b.length / 2 + 1;
+        BytesReference pages = new CompositeBytesReference(new BytesArray(b, 0, split),
+                new BytesArray(b, split, b.length - split));
+        assertEquals(size, ngram.extract(pages, model, rows));
+        assertArrayEquals(Arrays.copyOf(expected, size), Arrays.copyOf(rows, size));
+    }
+
     /**
      * Test method for {@link NGram#normalize(char)} with Romanian characters.
      */
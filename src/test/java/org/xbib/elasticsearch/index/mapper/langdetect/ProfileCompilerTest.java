@@ -0,0 +1,82 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangProfile;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.NGram;
+import org.xbib.elasticsearch.common.langdetect.ProfileCompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link ProfileCompiler}.
+ */
+public class ProfileCompilerTest extends Assert {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<LangProfile> profiles = new ArrayList<>();
+        for (String lang : new String[] { "de", "en", "fr", "ja" }) {
+            try (InputStream in = getClass().getResourceAsStream("/langdetect/merged-average/" + lang)) {
+                profiles.add(new LangProfile(in));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProfileCompiler.write(profiles, out);
+        // read a subset in a different order
+        LangdetectModel model = LangdetectModel.read(new ByteArrayInputStream(out.toByteArray()),
+                "merged-average", new String[] { "ja", "en" });
+        assertEquals("ja", model.getLanguages().get(0));
+        assertEquals("en", model.getLanguages().get(1));
+        LangProfile en = profiles.get(1);
+        for (Map.Entry<String, Long> entry : en.getFreq().entrySet()) {
+            double prob = entry.getValue().doubleValue() / en.getNWords().get(entry.getKey().length() - 1);
+            assertEquals(prob, model.get(entry.getKey(), 1), 0d);
+        }
+        // n-grams of languages that were not selected are not part of the model
+        LangProfile de = profiles.get(0);
+        for (String gram : de.getFreq().keySet()) {
+            if (!en.getFreq().containsKey(gram) && !profiles.get(3).getFreq().containsKey(gram)) {
+                assertFalse(model.contains(gram));
+            }
+        }
+    }
+
+    @Test
+    public void testRows() throws IOException {
+        LangProfile en;
+        try (InputStream in = getClass().getResourceAsStream("/langdetect/merged-average/en")) {
+            en = new LangProfile(in);
+        }
+        LangdetectModel model = LangdetectModel.load("merged-average", new String[] { "en" });
+        Set<Integer> rows = new HashSet<>();
+        for (String gram : en.getFreq().keySet()) {
+            int row = model.row(gram);
+            assertTrue(row >= 0 && row < en.getFreq().size());
+            assertEquals(row, model.row(NGram.pack(gram)));
+            assertTrue(rows.add(row));
+        }
+        assertEquals(-1, model.row("\u0000"));
+        assertEquals(-1, model.row("abcd"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingLanguage() throws IOException {
+        List<LangProfile> profiles = new ArrayList<>();
+        try (InputStream in = getClass().getResourceAsStream("/langdetect/merged-average/en")) {
+            profiles.add(new LangProfile(in));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProfileCompiler.write(profiles, out);
+        LangdetectModel.read(new ByteArrayInputStream(out.toByteArray()), null, new String[] { "de" });
+    }
+}
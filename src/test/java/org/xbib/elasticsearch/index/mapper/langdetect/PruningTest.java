@@ -0,0 +1,71 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+
+/**
+ * Tests for the pruning of unlikely languages during the sampling trials.
+ */
+public class PruningTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("profile", "merged-average")
+            .put("languages", LangdetectModel.ALL_LANGUAGES)
+            .build();
+
+    private void assertPruning(Settings settings) throws Exception {
+        LangdetectService service = new LangdetectService(settings);
+        LangdetectService pruning = new LangdetectService(Settings.builder().put(settings)
+                .put("prune_threshold", 1e-6).build());
+        DetectionFixtures.assertSameTopLanguage(service, pruning, 1e-3);
+        for (String text : DetectionFixtures.texts()) {
+            // the results are deterministic
+            assertEquals(pruning.detectAll(text).get(0).getProbability(),
+                    pruning.detectAll(text).get(0).getProbability(), 0d);
+        }
+    }
+
+    @Test
+    public void testPruning() throws Exception {
+        assertPruning(SETTINGS);
+    }
+
+    @Test
+    public void testPruningWithScriptRouting() throws Exception {
+        assertPruning(Settings.builder().put(SETTINGS).put("script_routing", true).build());
+    }
+
+    @Test
+    public void testFewerReads() throws Exception {
+        // the later iterations of a trial read the probabilities of the remaining languages only
+        CountingModel model = new CountingModel(LangdetectModel.load("merged-average",
+                LangdetectModel.ALL_LANGUAGES.split(","), LangdetectModel.HEAP, null));
+        LangdetectService service = new LangdetectService(SETTINGS, model);
+        LangdetectService pruning = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("prune_threshold", 1e-6).build(), model);
+        long all = 0L;
+        long pruned = 0L;
+        for (String text : DetectionFixtures.texts()) {
+            model.reads = 0L;
+            service.detectAll(text);
+            all += model.reads;
+            long reads = model.reads;
+            model.reads = 0L;
+            pruning.detectAll(text);
+            pruned += model.reads;
+            assertTrue(text, model.reads <= reads);
+        }
+        assertTrue(pruned < all);
+    }
+
+    @Test
+    public void testHighThreshold() throws Exception {
+        // at least one language is always kept
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("prune_threshold", 0.9).build());
+        assertEquals("de", service.detectAll("Das kann deutsch sein").get(0).getLanguage());
+    }
+}
@@ -0,0 +1,73 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+
+/**
+ * Tests for quantized language models. The accuracies on the datasets of {@link DetectLanguageAccuracyTest}
+ * can be compared by running it with the system property {@code accuracies.model=quantized}.
+ */
+public class QuantizedModelTest extends Assert {
+
+    @Test
+    public void testProbabilities() throws Exception {
+        String[] languages = {"de", "en", "fr"};
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel quantized = LangdetectModel.load("merged-average", languages, LangdetectModel.QUANTIZED,
+                null);
+        assertEquals(heap.getLanguages(), quantized.getLanguages());
+        for (String word : new String[] {"d", "de", "der", "the", "le ", "xyz"}) {
+            assertEquals(heap.contains(word), quantized.contains(word));
+            for (int i = 0; i < languages.length; i++) {
+                double expected = heap.get(word, i);
+                double actual = quantized.get(word, i);
+                if (expected == 0d) {
+                    assertEquals(0d, actual, 0d);
+                } else {
+                    // the logarithms of the probabilities are rounded to the nearest of 255 levels per language
+                    assertEquals(Math.log(expected), Math.log(actual), 0.05);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testManyWeights() throws Exception {
+        String[] languages = {"de", "en", "fr"};
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel quantized = LangdetectModel.load("merged-average", languages, LangdetectModel.QUANTIZED,
+                null);
+        int row = quantized.row("der");
+        // more weights than kept tables, used in turns, so tables are replaced and computed again
+        for (int round = 0; round < 3; round++) {
+            for (int k = 1; k <= 100; k++) {
+                double weight = k * 1e-5;
+                double[] score = new double[languages.length];
+                quantized.addLog(score, row, weight, 1);
+                for (int i = 0; i < languages.length; i++) {
+                    assertEquals(Math.log(weight + quantized.get(row, i)), score[i], 1e-12);
+                    assertEquals(Math.log(weight + heap.get("der", i)), score[i], 0.05);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameLanguagesAsHeap() throws Exception {
+        String[] languages = LangdetectModel.ALL_LANGUAGES.split(",");
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel quantized = LangdetectModel.load("merged-average", languages, LangdetectModel.QUANTIZED,
+                null);
+        for (Settings settings : new Settings[] {
+                Settings.builder().put("mode", LangdetectService.TRIALS).build(),
+                Settings.builder().put("mode", LangdetectService.EXACT).build(),
+                Settings.builder().put("mode", LangdetectService.EXACT).put("script_routing", true).build()}) {
+            LangdetectService heapService = new LangdetectService(settings, heap);
+            LangdetectService quantizedService = new LangdetectService(settings, quantized);
+            DetectionFixtures.assertSameTopLanguage(heapService, quantizedService);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModelRegistry;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the cache of detection results.
+ */
+public class ResultCacheTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("languages", "de,en,fr")
+            .build();
+
+    private static void assertSameLanguages(List<Language> expected, List<Language> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getLanguage(), actual.get(i).getLanguage());
+            assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 0d);
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        assertNull(new LangdetectService(SETTINGS).getCacheStats());
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("cache_size", 10).build());
+        List<Language> first = service.detectAll("Das kann deutsch sein");
+        List<Language> second = service.detectAll("Das kann deutsch sein");
+        assertSame(first, second);
+        // the UTF-8 bytes of a text hit the entry of the text
+        assertSame(first, service.detectAll(new BytesArray("Das kann deutsch sein")));
+        service.detectAll("This is a very small test");
+        Cache.CacheStats stats = service.getCacheStats();
+        assertEquals(2L, stats.getHits());
+        assertEquals(2L, stats.getMisses());
+        assertEquals(0L, stats.getEvictions());
+        assertSameLanguages(new LangdetectService(SETTINGS).detectAll("Das kann deutsch sein"), first);
+    }
+
+    @Test
+    public void testNormalizedText() throws Exception {
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("cache_size", 10).build());
+        List<Language> first = service.detectAll("Das kann deutsch sein!");
+        // texts with the same n-grams share an entry
+        assertSame(first, service.detectAll("Das kann deutsch sein."));
+        assertSame(first, service.detectAll("Das kann deutsch sein 123"));
+        assertEquals(2L, service.getCacheStats().getHits());
+        assertSameLanguages(new LangdetectService(SETTINGS).detectAll("Das kann deutsch sein."), first);
+    }
+
+    @Test
+    public void testRegistryStats() throws Exception {
+        LangdetectModelRegistry registry = new LangdetectModelRegistry();
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("cache_size", 10).build());
+        registry.registerCache("index1", "field1", service);
+        registry.registerCache("index1", "field2", new LangdetectService(SETTINGS));
+        service.detectAll("Das kann deutsch sein");
+        service.detectAll("Das kann deutsch sein");
+        Map<String, Map<String, Cache.CacheStats>> stats = registry.getCacheStats();
+        assertEquals(1, stats.size());
+        assertEquals(1, stats.get("index1").size());
+        assertEquals(1L, stats.get("index1").get("field1").getHits());
+        registry.release("index1");
+        assertTrue(registry.getCacheStats().isEmpty());
+    }
+
+    @Test
+    public void testUnmodifiable() throws Exception {
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("cache_size", 10).put("cache_max_length", 25).build());
+        // a miss, a hit, and a text too long to be cached return the same kind of list
+        for (String text : new String[] {"Das kann deutsch sein", "Das kann deutsch sein",
+                "Allons enfants de la Patrie, Le jour de gloire est arrive!"}) {
+            List<Language> languages = service.detectAll(text);
+            try {
+                languages.clear();
+                fail(text);
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        Settings settings = Settings.builder().put(SETTINGS).put("mode", LangdetectService.EXACT).build();
+        LangdetectService service = new LangdetectService(Settings.builder().put(settings)
+                .put("cache_size", 10).build());
+        List<Language> first = service.detectAll("Das kann deutsch sein");
+        List<List<Language>> batch = service.detectAll(Arrays.asList("Das kann deutsch sein",
+                "This is a very small test"));
+        assertSame(first, batch.get(0));
+        assertEquals(1L, service.getCacheStats().getHits());
+        assertEquals(2L, service.getCacheStats().getMisses());
+        // the result of the batch was cached
+        assertSame(batch.get(1), service.detectAll("This is a very small test"));
+        assertEquals(2L, service.getCacheStats().getHits());
+        assertSameLanguages(new LangdetectService(settings).detectAll("This is a very small test"), batch.get(1));
+    }
+
+    @Test
+    public void testEvictions() throws Exception {
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("cache_size", 2).build());
+        service.detectAll("Das kann deutsch sein");
+        service.detectAll("This is a very small test");
+        service.detectAll("Allons enfants de la Patrie");
+        assertEquals(1L, service.getCacheStats().getEvictions());
+        // the least recently used entry was evicted
+        service.detectAll("Das kann deutsch sein");
+        assertEquals(0L, service.getCacheStats().getHits());
+        service.detectAll("Allons enfants de la Patrie");
+        assertEquals(1L, service.getCacheStats().getHits());
+    }
+
+    @Test
+    public void testMaxLength() throws Exception {
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("cache_size", 10).put("cache_max_length", 10).build());
+        service.detectAll("Das kann deutsch sein");
+        service.detectAll("Das kann deutsch sein");
+        Cache.CacheStats stats = service.getCacheStats();
+        assertEquals(0L, stats.getHits());
+        assertEquals(0L, stats.getMisses());
+    }
+}
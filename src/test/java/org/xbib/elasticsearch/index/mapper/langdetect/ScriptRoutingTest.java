@@ -0,0 +1,104 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the restriction of the candidate languages by the scripts of a text.
+ */
+public class ScriptRoutingTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("profile", "merged-average")
+            .put("languages", LangdetectModel.ALL_LANGUAGES)
+            .put("script_routing", true)
+            .build();
+
+    private static final String RUSSIAN = "\u042d\u0442\u043e " +
+            "\u043d\u0435\u0431\u043e\u043b\u044c\u0448\u043e\u0439 \u0442\u0435\u043a\u0441\u0442 " +
+            "\u043d\u0430 \u0440\u0443\u0441\u0441\u043a\u043e\u043c \u044f\u0437\u044b\u043a\u0435";
+
+    private static final String KOREAN = "\ud55c\uad6d\uc5b4 \ud14d\uc2a4\ud2b8\uc785\ub2c8\ub2e4";
+
+    private static final String GREEK = "\u0391\u03c5\u03c4\u03cc \u03b5\u03af\u03bd\u03b1\u03b9 " +
+            "\u03ad\u03bd\u03b1 \u03ba\u03b5\u03af\u03bc\u03b5\u03bd\u03bf";
+
+    private static final String THAI = "\u0e20\u0e32\u0e29\u0e32\u0e44\u0e17\u0e22";
+
+    private static void assertSameLanguages(List<Language> expected, List<Language> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getLanguage(), actual.get(i).getLanguage());
+            assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 0d);
+        }
+    }
+
+    @Test
+    public void testUnambiguousScripts() throws Exception {
+        LangdetectService service = new LangdetectService(SETTINGS);
+        for (String[] expected : new String[][] {{KOREAN, "ko"}, {GREEK, "el"}, {THAI, "th"}}) {
+            List<Language> languages = service.detectAll(expected[0]);
+            assertEquals(1, languages.size());
+            assertEquals(expected[1], languages.get(0).getLanguage());
+            assertEquals(1d, languages.get(0).getProbability(), 0d);
+        }
+    }
+
+    @Test
+    public void testCyrillic() throws Exception {
+        for (String mode : new String[] {LangdetectService.TRIALS, LangdetectService.EXACT}) {
+            LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                    .put("mode", mode).put("prob_threshold", 0d).build());
+            List<Language> languages = service.detectAll(RUSSIAN);
+            assertEquals("ru", languages.get(0).getLanguage());
+            for (Language language : languages) {
+                assertTrue(language.getLanguage(),
+                        Arrays.asList("bg", "mk", "ru", "uk").contains(language.getLanguage()));
+            }
+        }
+    }
+
+    @Test
+    public void testLatin() throws Exception {
+        LangdetectService service = new LangdetectService(SETTINGS);
+        assertEquals("de", service.detectAll("Das kann deutsch sein").get(0).getLanguage());
+        assertEquals("en", service.detectAll("This is a very small test").get(0).getLanguage());
+    }
+
+    @Test
+    public void testNoLetters() throws Exception {
+        Settings settings = Settings.builder().put(SETTINGS).put("script_routing", false).build();
+        assertSameLanguages(new LangdetectService(settings).detectAll("1234 5678"),
+                new LangdetectService(SETTINGS).detectAll("1234 5678"));
+    }
+
+    @Test
+    public void testBytes() throws Exception {
+        for (String mode : new String[] {LangdetectService.TRIALS, LangdetectService.EXACT}) {
+            LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                    .put("mode", mode).build());
+            for (String text : new String[] {RUSSIAN, KOREAN, "Das kann deutsch sein"}) {
+                assertSameLanguages(service.detectAll(text), service.detectAll(new BytesArray(text)));
+            }
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        LangdetectService service = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("mode", LangdetectService.EXACT).build());
+        List<String> texts = Arrays.asList(RUSSIAN, KOREAN, GREEK, "Das kann deutsch sein");
+        List<List<Language>> batch = service.detectAll(texts);
+        for (int i = 0; i < texts.size(); i++) {
+            assertSameLanguages(service.detectAll(texts.get(i)), batch.get(i));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.xbib.elasticsearch.index.mapper.langdetect;
 
 import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.settings.Settings;
 import org.junit.Test;
 import org.xbib.elasticsearch.NodeTestUtils;
 
@@ -12,14 +13,27 @@ import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  *
  */
 public class SimpleHttpTest extends NodeTestUtils {
 
+    @Override
+    protected Settings getNodeSettings() {
+        return Settings.builder().put(super.getNodeSettings())
+                .put("langdetect.cache_size", 100)
+                .put("langdetect.bulk.max_lines", 3)
+                .build();
+    }
+
     @Test
     public void httpPost() throws IOException {
         startCluster();
@@ -100,4 +114,129 @@ public class SimpleHttpTest extends NodeTestUtils {
             stopCluster();
         }
     }
+
+    @Test
+    public void httpPostMulti() throws IOException {
+        startCluster();
+        try {
+            String httpAddress = findHttpAddress(client());
+            if (httpAddress == null) {
+                throw new IllegalArgumentException("no HTTP address found");
+            }
+            URL base = new URL(httpAddress);
+            URL url = new URL(base, "_mlangdetect");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setDoInput(true);
+            Streams.copy(new StringReader("{\"texts\":[\"Hallo, wie geht es Ihnen?\"," +
+                            "{\"text\":\"Das ist ein Text\",\"profile\":\"short-text\"}]}"),
+                    new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+            StringWriter response = new StringWriter();
+            Streams.copy(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), response);
+            assertEquals("{\"responses\":[" +
+                            "{\"languages\":[{\"language\":\"de\",\"probability\":0.9999958626688854}]}," +
+                            "{\"profile\":\"short-text\",\"languages\":[{\"language\":\"de\",\"probability\":0.999996853902916}]}" +
+                            "]}",
+                    response.toString());
+        } finally {
+            stopCluster();
+        }
+    }
+
+    @Test
+    public void httpPostBulk() throws IOException {
+        startCluster();
+        try {
+            String httpAddress = findHttpAddress(client());
+            if (httpAddress == null) {
+                throw new IllegalArgumentException("no HTTP address found");
+            }
+            URL base = new URL(httpAddress);
+            URL url = new URL(base, "_langdetect/_bulk");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestProperty("Content-Type", "application/x-ndjson");
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setDoInput(true);
+            Streams.copy(new StringReader("{\"id\":1,\"text\":\"Hallo, wie geht es Ihnen?\"}\n" +
+                            "\n" +
+                            "{\"id\":\"b\",\"text\":\"Das ist ein Text\",\"profile\":\"short-text\"}\n" +
+                            "{\"id\":3}\n"),
+                    new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+            StringWriter response = new StringWriter();
+            Streams.copy(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), response);
+            // lines are written in the order in which the detections complete
+            List<String> lines = new ArrayList<>(Arrays.asList(response.toString().split("\n")));
+            Collections.sort(lines);
+            assertEquals(3, lines.size());
+            assertEquals("{\"id\":\"b\",\"languages\":[{\"language\":\"de\",\"probability\":0.999996853902916}]}",
+                    lines.get(0));
+            assertEquals("{\"id\":1,\"languages\":[{\"language\":\"de\",\"probability\":0.9999958626688854}]}",
+                    lines.get(1));
+            assertTrue(lines.get(2).startsWith("{\"id\":3,\"line\":4,\"error\":"));
+            assertTrue(lines.get(2).endsWith("\"status\":400}"));
+        } finally {
+            stopCluster();
+        }
+    }
+
+    @Test
+    public void httpPostBulkMaxLines() throws IOException {
+        startCluster();
+        try {
+            String httpAddress = findHttpAddress(client());
+            if (httpAddress == null) {
+                throw new IllegalArgumentException("no HTTP address found");
+            }
+            URL url = new URL(new URL(httpAddress), "_langdetect/_bulk");
+            // three lines, the last one without a newline, and a blank line
+            assertEquals(200, postBulk(url, "{\"text\":\"a\"}\n\n{\"text\":\"b\"}\n{\"text\":\"c\"}"));
+            // four lines, the last one without a newline
+            assertEquals(400, postBulk(url, "{\"text\":\"a\"}\n{\"text\":\"b\"}\n{\"text\":\"c\"}\n{\"text\":\"d\"}"));
+        } finally {
+            stopCluster();
+        }
+    }
+
+    private static int postBulk(URL url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Content-Type", "application/x-ndjson");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        Streams.copy(new StringReader(body),
+                new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+        return connection.getResponseCode();
+    }
+
+    @Test
+    public void httpGetStats() throws IOException {
+        startCluster();
+        try {
+            String httpAddress = findHttpAddress(client());
+            if (httpAddress == null) {
+                throw new IllegalArgumentException("no HTTP address found");
+            }
+            URL base = new URL(httpAddress);
+            for (int i = 0; i < 2; i++) {
+                HttpURLConnection connection = (HttpURLConnection) new URL(base, "_langdetect").openConnection();
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                Streams.copy(new StringReader("{\"text\":\"Hallo, wie geht es Ihnen?\"}"),
+                        new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+                Streams.copy(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8),
+                        new StringWriter());
+            }
+            HttpURLConnection connection = (HttpURLConnection) new URL(base, "_langdetect/_stats").openConnection();
+            StringWriter response = new StringWriter();
+            Streams.copy(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), response);
+            assertEquals("{\"caches\":{\"langdetect\":{\"\":{\"hits\":1,\"misses\":1,\"evictions\":0}}}}",
+                    response.toString());
+        } finally {
+            stopCluster();
+        }
+    }
 }
@@ -0,0 +1,42 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+
+/**
+ * Tests for sparse language models.
+ */
+public class SparseModelTest extends Assert {
+
+    @Test
+    public void testProbabilities() throws Exception {
+        String[] languages = {"de", "en", "fr", "ja", "ko"};
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel sparse = LangdetectModel.load("merged-average", languages, LangdetectModel.SPARSE, null);
+        assertEquals(heap.getLanguages(), sparse.getLanguages());
+        for (String word : new String[] {"d", "de", "der", "the", "le ", "xyz", "あ", "한"}) {
+            assertEquals(heap.contains(word), sparse.contains(word));
+            for (int i = 0; i < languages.length; i++) {
+                assertEquals(heap.get(word, i), sparse.get(word, i), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testSameLanguagesAsHeap() throws Exception {
+        String[] languages = LangdetectModel.ALL_LANGUAGES.split(",");
+        LangdetectModel heap = LangdetectModel.load("merged-average", languages, LangdetectModel.HEAP, null);
+        LangdetectModel sparse = LangdetectModel.load("merged-average", languages, LangdetectModel.SPARSE, null);
+        for (Settings settings : new Settings[] {
+                Settings.builder().put("mode", LangdetectService.TRIALS).build(),
+                Settings.builder().put("mode", LangdetectService.EXACT).build(),
+                Settings.builder().put("script_routing", true).put("prune_threshold", 1e-6).build()}) {
+            LangdetectService heapService = new LangdetectService(settings, heap);
+            LangdetectService sparseService = new LangdetectService(settings, sparse);
+            DetectionFixtures.assertSameTopLanguage(heapService, sparseService, 1e-6);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.LangdetectModel;
+import org.xbib.elasticsearch.common.langdetect.LangdetectService;
+import org.xbib.elasticsearch.common.langdetect.Language;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Tests for the detection of texts read from a reader.
+ */
+public class StreamingDetectionTest extends Assert {
+
+    private static final Settings SETTINGS = Settings.builder()
+            .put("profile", "merged-average")
+            .put("languages", LangdetectModel.ALL_LANGUAGES)
+            .build();
+
+    @Test
+    public void testLongTexts() throws IOException {
+        LangdetectService service = new LangdetectService(SETTINGS);
+        String[][] files = {{"english.txt", "en"}, {"chinese.txt", "zh-cn"}, {"japanese.txt", "ja"},
+                {"korean.txt", "ko"}};
+        for (String[] file : files) {
+            try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(file[0]),
+                    StandardCharsets.UTF_8)) {
+                assertEquals(file[1], service.detectAll(reader).get(0).getLanguage());
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsExact() throws IOException {
+        LangdetectService exact = new LangdetectService(Settings.builder().put(SETTINGS)
+                .put("mode", LangdetectService.EXACT).build());
+        // short texts fit into a single chunk
+        for (String text : new String[] {"Das kann deutsch sein", "This is a very small test", "1234", ""}) {
+            List<Language> expected = exact.detectAll(text);
+            List<Language> actual = new LangdetectService(SETTINGS).detectAll(new StringReader(text));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getLanguage(), actual.get(i).getLanguage());
+                assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testEarlyStop() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("This is a very small test. ");
+        }
+        CountingReader reader = new CountingReader(new StringReader(sb.toString()));
+        List<Language> languages = new LangdetectService(SETTINGS).detectAll(reader);
+        assertEquals("en", languages.get(0).getLanguage());
+        assertTrue(reader.count < sb.length() / 10);
+    }
+
+    @Test
+    public void testBudget() throws IOException {
+        String text = "Das kann deutsch sein. This is a very small test, but a much longer one than the German text";
+        LangdetectService service = new LangdetectService(SETTINGS);
+        assertEquals("en", service.detectAll(new StringReader(text)).get(0).getLanguage());
+        assertEquals("de", service.detectAll(new StringReader(text), 22).get(0).getLanguage());
+        assertTrue(service.detectAll(new StringReader(text), 0).isEmpty());
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        // the texts are longer than a chunk and have no white space
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("\u3053\u308c\u306f\u65e5\u672c\u8a9e\u3067\u3059");
+        }
+        assertEquals("ja", new LangdetectService(SETTINGS).detectAll(new StringReader(sb.toString()))
+                .get(0).getLanguage());
+    }
+
+    private static class CountingReader extends Reader {
+
+        private final Reader reader;
+
+        private long count;
+
+        CountingReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = reader.read(cbuf, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.common.langdetect.TextSampler;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for {@link TextSampler}.
+ */
+public class TextSamplerTest extends Assert {
+
+    @Test
+    public void testNoop() {
+        TextSampler sampler = new TextSampler(0, 0, 0);
+        assertTrue(sampler.isNoop());
+        String text = "Das ist ein kleiner Text als Beispiel";
+        assertSame(text, sampler.sample(text));
+        assertEquals(text, sampler.sample(text.getBytes(StandardCharsets.UTF_8)));
+        assertNull(sampler.sample((String) null));
+    }
+
+    @Test
+    public void testMaxLength() {
+        TextSampler sampler = new TextSampler(5, 0, 0);
+        assertEquals("abcde", sampler.sample("abcdefgh"));
+        assertEquals("abc", sampler.sample("abc"));
+        // surrogate pairs are not split
+        assertEquals("abcd", sampler.sample("abcd\ud83d\ude00"));
+        assertEquals("\u00e4\u00f6\u00fc\u00df\u20ac", sampler.sample(("\u00e4\u00f6\u00fc\u00df\u20ac" +
+                "\u00e4\u00f6\u00fc\u00df\u20ac\u00e4\u00f6\u00fc\u00df\u20ac\u00e4\u00f6\u00fc\u00df\u20ac")
+                .getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testWindows() {
+        TextSampler sampler = new TextSampler(0, 3, 2);
+        assertEquals("ab", sampler.sample("ab"));
+        assertEquals("ab kl uv", sampler.sample("abcdefghijklmnopqrstuv"));
+        assertEquals("ab kl uv", sampler.sample("abcdefghijklmnopqrstuv".getBytes(StandardCharsets.UTF_8)));
+        // windows are joined before they are cut
+        assertEquals("ab k", new TextSampler(4, 3, 2).sample("abcdefghijklmnopqrstuv"));
+    }
+
+    @Test
+    public void testWindowsOfMultibyteChars() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(i % 2 == 0 ? "\u00e4" : "\u20ac");
+        }
+        String sample = new TextSampler(0, 4, 5).sample(sb.toString().getBytes(StandardCharsets.UTF_8));
+        assertTrue(sample.startsWith("\u00e4\u20ac\u00e4\u20ac\u00e4 "));
+        assertTrue(sample.length() <= 4 * 5 + 3);
+        assertFalse(sample.contains("\ufffd"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWindowSize() {
+        new TextSampler(0, 3, 0);
+    }
+}
@@ -0,0 +1,64 @@
+package org.xbib.elasticsearch.index.mapper.langdetect;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.action.langdetect.ThrottledDispatcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link ThrottledDispatcher}.
+ */
+public class ThrottledDispatcherTest extends Assert {
+
+    @Test
+    public void testInlineCompletion() throws Exception {
+        // tasks that complete on the calling thread must not grow the stack
+        int tasks = 1000000;
+        AtomicInteger started = new AtomicInteger();
+        new ThrottledDispatcher() {
+            @Override
+            protected void dispatchNext() {
+                if (started.getAndIncrement() < tasks) {
+                    dispatch();
+                }
+            }
+        }.start(4);
+        assertEquals(tasks + 4, started.get());
+    }
+
+    @Test
+    public void testConcurrency() throws Exception {
+        int tasks = 1000;
+        int concurrency = 3;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(tasks);
+        try {
+            new ThrottledDispatcher() {
+                @Override
+                protected void dispatchNext() {
+                    if (next.getAndIncrement() >= tasks) {
+                        return;
+                    }
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    executor.execute(() -> {
+                        inFlight.decrementAndGet();
+                        latch.countDown();
+                        dispatch();
+                    });
+                }
+            }.start(concurrency);
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertTrue(maxInFlight.get() <= concurrency);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}